@@ -0,0 +1,99 @@
+package ti;
+
+import java.util.ArrayList;
+
+/**
+ * This class turns plain text into index terms with a pipeline of stages: a {@link Tokenizer} splits the text at
+ * whitespace, and every token then goes through the stages in order, such as normalization, stopword removal and
+ * stemming. A stage gets a token and gives zero or more tokens to the next one, so it may change, drop or split it.
+ * <p>
+ * Analyzers only see plain text: parsing the source format, such as HTML, is done once per document by
+ * {@link DocumentProcessor#parse}, and the title and body it gives are analyzed as they are. Queries are plain text
+ * already, so they are analyzed directly.
+ * <p>
+ * Tokens travel as slices of reusable buffers, which stages may modify in place, so an analyzer is not thread-safe;
+ * use one per thread.
+ */
+public class Analyzer
+{
+    /**
+     * A stage of the analysis.
+     */
+    @FunctionalInterface
+    public interface Stage
+    {
+        /**
+         * Processes a token, giving the resulting tokens to the next stage. The buffer may be modified in place.
+         *
+         * @param chars  the buffer with the token at its start.
+         * @param length the length of the token.
+         * @param next   the next stage.
+         */
+        void process(char[] chars, int length, TermSink next);
+    }
+
+    protected final Tokenizer tokenizer;
+    protected final TermSink first; // the first stage, chained to the others
+    protected TermSink output;      // the sink of the current analysis
+
+    /**
+     * Creates a new analyzer.
+     *
+     * @param tokenizer the tokenizer that splits the text.
+     * @param stages    the stages that each token goes through, in order.
+     */
+    public Analyzer(Tokenizer tokenizer, Stage... stages)
+    {
+        this.tokenizer = tokenizer;
+        TermSink next = (chars, length) -> this.output.term(chars, length);
+        for (int i = stages.length - 1; i >= 0; i--) {
+            Stage stage = stages[i];
+            TermSink after = next;
+            next = (chars, length) -> stage.process(chars, length, after);
+        }
+        this.first = next;
+    }
+
+    /**
+     * Analyzes a text, giving its terms to the sink in order.
+     *
+     * @param text the plain text to analyze.
+     * @param sink the sink to give the terms to.
+     */
+    public void analyze(String text, TermSink sink)
+    {
+        this.output = sink;
+        try {
+            this.tokenizer.split(text, this.first);
+        } finally {
+            this.output = null;
+        }
+    }
+
+    /**
+     * Analyzes a text into a list of terms.
+     *
+     * @param text the plain text to analyze.
+     * @return the terms, in order.
+     */
+    public ArrayList<String> analyze(String text)
+    {
+        ArrayList<String> terms = new ArrayList<>();
+        this.analyze(text, (chars, length) -> terms.add(new String(chars, 0, length)));
+        return terms;
+    }
+
+    /**
+     * Returns a stage that drops stopwords.
+     *
+     * @param stopwords the stopwords, already normalized.
+     * @return the stage.
+     */
+    public static Stage stopwords(TermSet stopwords)
+    {
+        return (chars, length, next) -> {
+            if (!stopwords.contains(chars, length))
+                next.term(chars, length);
+        };
+    }
+}
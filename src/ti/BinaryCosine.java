@@ -3,7 +3,6 @@ package ti;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 
 public class BinaryCosine implements RetrievalModel {
 
@@ -34,26 +33,21 @@ public class BinaryCosine implements RetrievalModel {
 
 		// P1
 
-		//Crear vector d y norma de q:
-		//		id doc,				     id term, wtd
-		HashMap<Integer, ArrayList<Integer>> d = new HashMap<>();
+		//Contar los términos de la consulta que contiene cada documento:
+		int[] d = new int[index.documents.size()];
 		for (Integer term : queryVector){
-			ArrayList<Tuple<Integer, Double>> docs = index.invertedIndex.get(term);
-			for (Tuple<Integer, Double> doc : docs){
-				if (!d.containsKey(doc.item1)){
-					d.put(doc.item1, new ArrayList<Integer>());
-					d.get(doc.item1).add(term);
-				} else{
-					d.get(doc.item1).add(term);
-				}
+			PostingsCursor docs = index.invertedIndex.cursor(term);
+			while (docs.next()){
+				d[docs.id()]++;
 			}
 		}
 
 		//Calcular similitud para cada documento:
-		for(Integer docId : d.keySet()){
+		for(int docId=0; docId<d.length; docId++){
+			if(d[docId] == 0 || index.isDeleted(docId))
+				continue;
 			//Calcular numerador del coseno:
-			ArrayList<Integer> doc = d.get(docId);
-			Double sim = doc.size()/(Math.sqrt(doc.size())*Math.sqrt(queryVector.size()));
+			double sim = d[docId]/(Math.sqrt(d[docId])*Math.sqrt(queryVector.size()));
 			results.add(new Tuple<Integer,Double>(docId,sim));
 		}
 
@@ -0,0 +1,124 @@
+package ti;
+
+/**
+ * This class is an {@link Analyzer} stage that stems tokens with the Porter algorithm of {@link Stemmer}, and keeps
+ * the stems of recent tokens in a bounded cache. A stemmer is not thread-safe, so each thread uses its own, like the
+ * {@link Analyzer} it belongs to.
+ * <p>
+ * Since terms repeat following Zipf's law, most tokens hit the cache, and their stem is given straight from it. On a
+ * miss, the token is fed as a whole to the {@link Stemmer}, which reuses its buffer, and the stem is then cached. The
+ * cache is a direct-mapped table, hashed like {@link String#hashCode}, whose entries are laid out inline in a single
+ * array, {@link #SLOT_WIDTH} chars each, with the lengths of the term and its stem followed by both. A hit therefore
+ * reads a single cache line instead of following a reference to a separate array, which matters because the lookups
+ * are random and share the processor caches with the term tables of the index. Tokens or stems longer than
+ * {@link #MAX_LENGTH} are not cached, which only affects rare words. A new entry replaces whatever was in its slot, so
+ * the cache never grows past its capacity.
+ * <p>
+ * The cache is private to its thread on purpose, rather than shared by all of them. Threads can only share a cache
+ * without locks if each entry is published as an immutable array of its own. Every hit then follows a reference to a
+ * scattered array, and that costs more than the extra misses of private caches: each one is warm after a few
+ * documents. At {@link #DEFAULT_CAPACITY} entries a cache takes about 1 MB per thread.
+ */
+public class CachedStemmer implements Analyzer.Stage
+{
+    /**
+     * The default number of entries of the cache, which takes 64 bytes per entry.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    /**
+     * The maximum length of the tokens and stems kept in the cache.
+     */
+    public static final int MAX_LENGTH = 15;
+
+    /**
+     * The number of chars of an entry: the term length, the stem length, the term and the stem.
+     */
+    protected static final int SLOT_WIDTH = 2 + 2 * MAX_LENGTH;
+
+    protected final char[] cache; // [slot * SLOT_WIDTH] -> term length (0 if empty), stem length, term, stem
+    protected final int mask;
+    protected final Stemmer stemmer = new Stemmer();
+
+    /**
+     * Creates a new stemmer.
+     *
+     * @param capacity the number of entries of the cache, rounded up to a power of two.
+     */
+    public CachedStemmer(int capacity)
+    {
+        int size = 1;
+        while (size < capacity)
+            size *= 2;
+        this.cache = new char[size * SLOT_WIDTH];
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void process(char[] chars, int length, TermSink next)
+    {
+        // The stemmer leaves words this short as they are
+        if (length <= 2) {
+            next.term(chars, length);
+            return;
+        }
+        if (length > MAX_LENGTH) {
+            this.stemmer.add(chars, length);
+            this.stemmer.stem();
+            this.emit(this.stemmer.getResultBuffer(), 0, this.stemmer.getResultLength(), chars, next);
+            return;
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + chars[i];
+        char[] cache = this.cache;
+        int base = (Hashing.mix(hash) & this.mask) * SLOT_WIDTH;
+        boolean hit = cache[base] == length;
+        for (int i = 0; hit && i < length; i++)
+            hit = cache[base + 2 + i] == chars[i];
+        if (!hit) {
+            this.stemmer.add(chars, length);
+            this.stemmer.stem();
+            int stemLength = this.stemmer.getResultLength();
+            if (stemLength > MAX_LENGTH) {
+                this.emit(this.stemmer.getResultBuffer(), 0, stemLength, chars, next);
+                return;
+            }
+            cache[base] = (char) length;
+            cache[base + 1] = (char) stemLength;
+            System.arraycopy(chars, 0, cache, base + 2, length);
+            System.arraycopy(this.stemmer.getResultBuffer(), 0, cache, base + 2 + MAX_LENGTH, stemLength);
+        }
+        this.emit(cache, base + 2 + MAX_LENGTH, cache[base + 1], chars, next);
+    }
+
+    /**
+     * Gives a stem to the next stage, copied into the token buffer if it fits.
+     *
+     * @param stem   the buffer with the stem.
+     * @param offset the offset of the stem in the buffer.
+     * @param length the length of the stem.
+     * @param chars  the token buffer.
+     * @param next   the next stage.
+     */
+    protected void emit(char[] stem, int offset, int length, char[] chars, TermSink next)
+    {
+        // The next stages may modify the token in place, so they get a copy of the stem
+        char[] out = length <= chars.length ? chars : new char[length];
+        System.arraycopy(stem, offset, out, 0, length);
+        next.term(out, length);
+    }
+
+    /**
+     * Stems a term.
+     *
+     * @param term the term, in lowercase.
+     * @return the stem of the term.
+     */
+    public String stem(String term)
+    {
+        String[] stem = new String[1];
+        this.process(term.toCharArray(), term.length(), (chars, length) -> stem[0] = new String(chars, 0, length));
+        return stem[0];
+    }
+}
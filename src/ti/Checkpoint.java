@@ -0,0 +1,338 @@
+package ti;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps the checkpoints of an index build in progress, so that an interrupted build can be resumed from
+ * the last one instead of from scratch.
+ * <p>
+ * The {@code checkpoint} file in the index directory starts with a header, with the collection being indexed, and is
+ * followed by one record per checkpoint. A record only holds what changed since the previous one: the names of the new
+ * documents, the new terms in {@code termID} order, and the new postings of every term that got any. It also holds the
+ * number of documents of the collection consumed so far and the origin of the last one, so that a resumed build can
+ * check that the collection still gives the same documents, the runs spilled by the {@link RunMerger} and the size of
+ * the {@link DocumentStore} data file at the checkpoint, whose table must have been flushed just before. Records are
+ * framed by their length and a CRC, and are forced to disk, so a record torn by a crash is detected and dropped.
+ * <p>
+ * When the postings are spilled to a run, the in-memory index only keeps the documents, so the file is replaced with a
+ * single record that holds them all, which keeps it from growing with the postings of the runs.
+ */
+public class Checkpoint
+{
+    /**
+     * The name of the checkpoint file in the index directory.
+     */
+    public static final String FILE = "checkpoint";
+
+    protected static final int MAGIC = 0x54494350; // "TICP"
+    protected static final int VERSION = 2;
+
+    protected final File file;
+    protected final String collection;
+
+    protected int documents;  // documents of the index at the last record
+    protected int terms;      // terms of the index at the last record
+    protected int[] sizes;    // [termID] -> postings of the term at the last record
+    protected boolean opened; // whether the file has a header for this build
+
+    /**
+     * The number of documents of the collection consumed at the last checkpoint, including those that failed.
+     */
+    public long position;
+    /**
+     * The origin of the last document of the collection consumed at the last checkpoint (see
+     * {@link SourceDocument#origin}), relative to the collection.
+     */
+    public String origin;
+    /**
+     * The number of runs spilled at the last checkpoint.
+     */
+    public int runs;
+    /**
+     * The estimated size of the postings in memory at the last checkpoint (see {@link PartialIndex#estimatedBytes}).
+     */
+    public long runBytes;
+    /**
+     * The size of the document store data file at the last checkpoint.
+     */
+    public long storeLength;
+
+    /**
+     * Creates the checkpoints of a build of the specified collection into the specified index directory.
+     *
+     * @param dir        the index directory.
+     * @param collection the collection being indexed.
+     */
+    public Checkpoint(File dir, File collection)
+    {
+        this.file = new File(dir, FILE);
+        this.collection = collection.getAbsolutePath();
+        this.sizes = new int[0];
+    }
+
+    /**
+     * Checks whether an index directory has checkpoints of an interrupted build.
+     *
+     * @param dir the index directory.
+     * @return {@code true} if the directory has a checkpoint file.
+     */
+    public static boolean exists(File dir)
+    {
+        return new File(dir, FILE).exists();
+    }
+
+    /**
+     * Appends a checkpoint with the current state of the index being built. The document store of the index must have
+     * been flushed with all its documents.
+     *
+     * @param ind         the index being built.
+     * @param position    the number of documents of the collection consumed so far.
+     * @param origin      the origin of the last document consumed, relative to the collection.
+     * @param runs        the number of runs spilled so far.
+     * @param runBytes    the estimated size of the postings in memory.
+     * @param storeLength the size of the document store data file.
+     * @throws IOException if an error occurs while writing the checkpoint.
+     */
+    public void write(Index ind, long position, String origin, int runs, long runBytes, long storeLength)
+            throws IOException
+    {
+        if (runs != this.runs) {
+            // The postings have been spilled: start over with the documents alone
+            this.documents = 0;
+            this.terms = 0;
+            this.sizes = new int[0];
+            this.opened = false;
+        }
+        byte[] record = this.record(ind, position, origin, runs, runBytes, storeLength);
+
+        if (!this.opened) {
+            File tmp = new File(this.file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(this.header());
+                out.write(record);
+                out.getFD().sync();
+            }
+            Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            this.opened = true;
+        } else {
+            try (FileOutputStream out = new FileOutputStream(this.file, true)) {
+                out.write(record);
+                out.getFD().sync();
+            }
+        }
+        this.position = position;
+        this.origin = origin;
+        this.runs = runs;
+        this.runBytes = runBytes;
+        this.storeLength = storeLength;
+    }
+
+    /**
+     * Rebuilds the index at the last valid checkpoint, and drops any torn record after it. The index must be empty.
+     *
+     * @param ind the index being built.
+     * @throws IOException if the checkpoints are for another collection, or cannot be read.
+     */
+    public void restore(Index ind) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(this.file.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Invalid checkpoint file " + this.file + ".");
+            String collection = in.readUTF();
+            if (!collection.equals(this.collection))
+                throw new IOException("The checkpoints in " + this.file + " are for another collection: " + collection);
+        } catch (EOFException ex) {
+            throw new IOException("Invalid checkpoint file " + this.file + ".", ex);
+        }
+
+        int valid = bytes.length - in.available();
+        CRC32 crc = new CRC32();
+        while (in.available() >= 12) {
+            int length = in.readInt();
+            if (length < 0 || length > in.available() - 8)
+                break;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            crc.reset();
+            crc.update(record);
+            if (in.readLong() != crc.getValue())
+                break;
+            this.replay(ind, record);
+            valid = bytes.length - in.available();
+        }
+        if (valid < bytes.length) {
+            try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+
+        this.documents = ind.documents.size();
+        this.terms = ind.invertedIndex.size();
+        this.sizes = new int[this.terms];
+        for (int termID = 0; termID < this.terms; termID++)
+            this.sizes[termID] = ind.invertedIndex.get(termID).size();
+        this.opened = true;
+    }
+
+    /**
+     * Deletes the checkpoints, once the build is complete.
+     *
+     * @throws IOException if an error occurs while deleting the file.
+     */
+    public void delete() throws IOException
+    {
+        Files.deleteIfExists(this.file.toPath());
+        this.opened = false;
+    }
+
+    protected byte[] header() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(this.collection);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the changes since the last record, framed by their length and CRC.
+     */
+    protected byte[] record(Index ind, long position, String origin, int runs, long runBytes, long storeLength)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, set below
+        out.writeLong(position);
+        out.writeUTF(origin);
+        out.writeInt(runs);
+        out.writeLong(runBytes);
+        out.writeLong(storeLength);
+
+        // New documents
+        int documents = ind.documents.size();
+        out.writeInt(this.documents);
+        out.writeInt(documents);
+        for (int docID = this.documents; docID < documents; docID++)
+            out.writeUTF(ind.documents.get(docID).item1);
+
+        // New terms, as chars since malformed terms may not survive an encoding
+        int terms = ind.invertedIndex.size();
+        String[] added = new String[terms - this.terms];
+        for (Map.Entry<String, Tuple<Integer, Double>> entry : ind.vocabulary.entrySet()) {
+            if (entry.getValue().item1 >= this.terms)
+                added[entry.getValue().item1 - this.terms] = entry.getKey();
+        }
+        out.writeInt(this.terms);
+        out.writeInt(terms);
+        for (String term : added) {
+            out.writeInt(term.length());
+            out.writeChars(term);
+        }
+
+        // New postings
+        int[] sizes = Arrays.copyOf(this.sizes, terms);
+        int changed = 0;
+        for (int termID = 0; termID < terms; termID++) {
+            if (ind.invertedIndex.get(termID).size() > sizes[termID])
+                changed++;
+        }
+        out.writeInt(changed);
+        for (int termID = 0; termID < terms; termID++) {
+            PostingsList postings = ind.invertedIndex.get(termID);
+            if (postings.size() == sizes[termID])
+                continue;
+            out.writeInt(termID);
+            out.writeInt(postings.size() - sizes[termID]);
+            for (int p = sizes[termID]; p < postings.size(); p++) {
+                out.writeInt(postings.id(p));
+                out.writeDouble(postings.weight(p));
+            }
+            sizes[termID] = postings.size();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 4, bytes.size() - 4);
+        out.writeLong(crc.getValue());
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 12;
+        record[0] = (byte) (length >>> 24);
+        record[1] = (byte) (length >>> 16);
+        record[2] = (byte) (length >>> 8);
+        record[3] = (byte) length;
+
+        this.documents = documents;
+        this.terms = terms;
+        this.sizes = sizes;
+        return record;
+    }
+
+    /**
+     * Applies the changes of a record to the index.
+     */
+    protected void replay(Index ind, byte[] record) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        long position = in.readLong();
+        String origin = in.readUTF();
+        int runs = in.readInt();
+        long runBytes = in.readLong();
+        long storeLength = in.readLong();
+
+        int docFrom = in.readInt();
+        int docTo = in.readInt();
+        if (docFrom == 0) {
+            // The first record after a spill, or of the build
+            ind.documents.clear();
+            ind.vocabulary.clear();
+            ind.invertedIndex = new PostingsIndex();
+        }
+        if (docFrom != ind.documents.size())
+            throw new IOException("Inconsistent checkpoint file " + this.file + ".");
+        for (int docID = docFrom; docID < docTo; docID++)
+            ind.documents.add(new Tuple<>(in.readUTF(), 0.0));
+
+        int termFrom = in.readInt();
+        int termTo = in.readInt();
+        if (termFrom != ind.invertedIndex.size())
+            throw new IOException("Inconsistent checkpoint file " + this.file + ".");
+        for (int termID = termFrom; termID < termTo; termID++) {
+            char[] term = new char[in.readInt()];
+            for (int i = 0; i < term.length; i++)
+                term[i] = in.readChar();
+            ind.vocabulary.put(new String(term), new Tuple<>(termID, 0.0));
+            ind.invertedIndex.add(new PostingsList());
+        }
+
+        int changed = in.readInt();
+        for (int i = 0; i < changed; i++) {
+            PostingsList postings = ind.invertedIndex.get(in.readInt());
+            int count = in.readInt();
+            for (int p = 0; p < count; p++)
+                postings.add(in.readInt(), in.readDouble());
+        }
+
+        this.position = position;
+        this.origin = origin;
+        this.runs = runs;
+        this.runBytes = runBytes;
+        this.storeLength = storeLength;
+    }
+}
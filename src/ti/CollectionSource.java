@@ -0,0 +1,303 @@
+package ti;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class gives the documents of a collection: a directory tree with {@code .html} files and archives, or a single
+ * archive.
+ * <p>
+ * The tree is walked recursively in order of name, so the documents are always given in the same order, skipping
+ * hidden directories. Besides {@code .html} files, it may hold
+ * {@code .html.gz} files, tar archives ({@code .tar}, {@code .tar.gz} or {@code .tgz}) and WARC files ({@code .warc}
+ * or {@code .warc.gz}), whose documents are streamed straight out of them with {@link TarSource} and
+ * {@link WarcSource}, without extracting them to disk.
+ * <p>
+ * Archives are read ahead, on a few background threads, each into its own bounded queue, and their documents are given
+ * in the order of the walk, so decompressing the next archives overlaps with indexing the current one without
+ * changing the order of the documents. Plain files are only read when they are indexed, by the indexing threads.
+ */
+public class CollectionSource implements DocumentSource
+{
+    /**
+     * The number of documents of an archive that may be read ahead.
+     */
+    public static final int QUEUE_DOCUMENTS = 64;
+
+    protected static final int BUFFER_BYTES = 64 * 1024;
+
+    protected final ArrayList<Part> parts;
+    protected final int window;
+    protected final ExecutorService executor;
+    protected int current;  // the part being given
+    protected int started;  // the parts before it have been started
+    protected int inFlight; // archives started and not given yet
+
+    /**
+     * Creates a new source over a collection.
+     *
+     * @param root    the root directory of the collection, or a single archive.
+     * @param threads the number of archives that are read ahead at the same time.
+     * @throws IOException if the collection cannot be walked.
+     */
+    public CollectionSource(File root, int threads) throws IOException
+    {
+        this.parts = new ArrayList<>();
+        if (root.isDirectory()) {
+            ArrayList<File> files = new ArrayList<>();
+            this.walk(root, files);
+            this.addFiles(files);
+        } else if (isArchive(root.getName())) {
+            this.parts.add(new ArchivePart(root));
+        } else if (root.isFile()) {
+            this.parts.add(new FilesPart(List.of(root)));
+        } else {
+            throw new IOException("Cannot find the collection " + root + ".");
+        }
+        this.window = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(this.window, runnable -> {
+            Thread thread = new Thread(runnable, "collection-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks whether a file is an archive that this class can read.
+     *
+     * @param name the name of the file.
+     * @return {@code true} if the file is an archive.
+     */
+    public static boolean isArchive(String name)
+    {
+        return name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz") || name.endsWith(".warc")
+                || name.endsWith(".warc.gz") || name.endsWith(".html.gz");
+    }
+
+    /**
+     * Opens an archive as a source of documents.
+     *
+     * @param file the archive.
+     * @return the source of its documents.
+     * @throws IOException if the archive cannot be opened.
+     */
+    public static DocumentSource openArchive(File file) throws IOException
+    {
+        String name = file.getName();
+        InputStream in = new FileInputStream(file);
+        try {
+            if (name.endsWith(".gz") || name.endsWith(".tgz"))
+                in = new GZIPInputStream(in, BUFFER_BYTES);
+            else
+                in = new BufferedInputStream(in, BUFFER_BYTES);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+
+        if (name.endsWith(".warc") || name.endsWith(".warc.gz"))
+            return new WarcSource(file.getPath(), in);
+        if (!name.endsWith(".html.gz"))
+            return new TarSource(file.getPath(), in);
+
+        // A single compressed document
+        InputStream document = in;
+        return new DocumentSource()
+        {
+            protected boolean read = false;
+
+            @Override
+            public SourceDocument next() throws IOException
+            {
+                if (this.read)
+                    return null;
+                this.read = true;
+                return new SourceDocument(SourceDocument.nameOf(name), file.getPath(), document.readAllBytes());
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                document.close();
+            }
+        };
+    }
+
+    @Override
+    public SourceDocument next() throws IOException
+    {
+        while (this.current < this.parts.size()) {
+            this.startParts();
+            Part part = this.parts.get(this.current);
+            SourceDocument document = part.take();
+            if (document != null)
+                return document;
+            if (part instanceof ArchivePart)
+                this.inFlight--;
+            this.parts.set(this.current++, null);
+        }
+        return null;
+    }
+
+    @Override
+    public void close()
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Adds the files and archives of a directory tree to the parts, in order.
+     */
+    protected void walk(File dir, ArrayList<File> files) throws IOException
+    {
+        File[] entries = dir.listFiles();
+        if (entries == null)
+            throw new IOException("Cannot list the directory " + dir + ".");
+        // The order of listFiles is unspecified, and a resumed build must see the documents in the same order
+        Arrays.sort(entries, Comparator.comparing(File::getName));
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                if (!entry.getName().startsWith("."))
+                    this.walk(entry, files);
+            } else if (isArchive(entry.getName())) {
+                this.addFiles(files);
+                this.parts.add(new ArchivePart(entry));
+            } else if (entry.getName().endsWith(".html")) {
+                files.add(entry);
+            }
+        }
+    }
+
+    protected void addFiles(ArrayList<File> files)
+    {
+        if (!files.isEmpty()) {
+            this.parts.add(new FilesPart(new ArrayList<>(files)));
+            files.clear();
+        }
+    }
+
+    /**
+     * Starts reading ahead the next archives, up to the window.
+     */
+    protected void startParts()
+    {
+        if (this.started < this.current)
+            this.started = this.current;
+        while (this.started < this.parts.size() && (this.inFlight < this.window || this.started == this.current)) {
+            Part part = this.parts.get(this.started++);
+            if (part instanceof ArchivePart) {
+                ((ArchivePart) part).start(this.executor);
+                this.inFlight++;
+            }
+        }
+    }
+
+    /**
+     * A part of the collection, whose documents are given one after the other.
+     */
+    protected interface Part
+    {
+        /**
+         * Returns the next document of the part, waiting for it if needed.
+         *
+         * @return the next document, or {@code null} at the end of the part.
+         */
+        SourceDocument take() throws IOException;
+    }
+
+    /**
+     * Consecutive plain files, which are not read ahead.
+     */
+    protected static class FilesPart implements Part
+    {
+        protected final List<File> files;
+        protected int next;
+
+        protected FilesPart(List<File> files)
+        {
+            this.files = files;
+        }
+
+        @Override
+        public SourceDocument take()
+        {
+            if (this.next == this.files.size())
+                return null;
+            File file = this.files.get(this.next++);
+            return new SourceDocument(SourceDocument.nameOf(file.getName()), file);
+        }
+    }
+
+    /**
+     * An archive, which is read ahead into a bounded queue on a background thread.
+     */
+    protected static class ArchivePart implements Part
+    {
+        protected static final SourceDocument END = new SourceDocument("", "", new byte[0]);
+
+        protected final File file;
+        protected final BlockingQueue<SourceDocument> queue;
+        protected volatile IOException failure;
+        protected boolean ended;
+
+        protected ArchivePart(File file)
+        {
+            this.file = file;
+            this.queue = new ArrayBlockingQueue<>(QUEUE_DOCUMENTS);
+        }
+
+        protected void start(ExecutorService executor)
+        {
+            executor.execute(() -> {
+                try (DocumentSource source = openArchive(this.file)) {
+                    SourceDocument document;
+                    while ((document = source.next()) != null)
+                        this.queue.put(document);
+                } catch (IOException ex) {
+                    this.failure = ex;
+                } catch (RuntimeException ex) {
+                    this.failure = new IOException("Cannot read the archive " + this.file + ".", ex);
+                } catch (InterruptedException ex) {
+                    return; // the source is closed
+                }
+                try {
+                    this.queue.put(END);
+                } catch (InterruptedException ex) {
+                    // the source is closed
+                }
+            });
+        }
+
+        @Override
+        public SourceDocument take() throws IOException
+        {
+            if (this.ended)
+                return null;
+            SourceDocument document;
+            try {
+                document = this.queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading the archive " + this.file + ".", ex);
+            }
+            if (document != END)
+                return document;
+            this.ended = true;
+            if (this.failure != null)
+                throw this.failure;
+            return null;
+        }
+    }
+}
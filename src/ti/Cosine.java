@@ -19,11 +19,8 @@ public class Cosine implements RetrievalModel
 	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor)
 	{
 		// P1
-		// extraer términos de la consulta
-		ArrayList<String> terms = docProcessor.processText(queryText);
-
-		// calcular el vector consulta
-		 ArrayList<Tuple<Integer, Double>> queryVector = computeVector(terms, index);
+		// extraer términos de la consulta y calcular el vector consulta
+		 ArrayList<Tuple<Integer, Double>> queryVector = computeVector(queryText, index, docProcessor);
 
 		// calcular similitud de documentos
 		 return computeScores(queryVector, index); // devolver resultados
@@ -38,30 +35,25 @@ public class Cosine implements RetrievalModel
 	 */
 	protected ArrayList<Tuple<Integer, Double>> computeScores(ArrayList<Tuple<Integer, Double>> queryVector, Index index)
 	{
-		ArrayList<Tuple<Integer, Double>> results = new ArrayList<>();
-		Double qNorm = 0.0;
+		double[] scores = new double[index.documents.size()];
+		boolean[] matched = new boolean[index.documents.size()];
+		double qNorm = 0.0;
 		// P1
 		for(Tuple<Integer, Double> term : queryVector){
-			qNorm += term.item2;
-			ArrayList<Tuple<Integer, Double>> docs = index.invertedIndex.get(term.item1);
-			for(Tuple<Integer, Double> d : docs){
-				int pos = -1;
-				for(int i=0; i<results.size(); i++){
-					if(results.get(i).item1 == term.item1){
-						pos = i;
-						break;
-					}
-				}
-				if(pos < 0){
-					results.add(new Tuple<>(d.item1, d.item2 * term.item2));
-				} else{
-					results.get(pos).item2 += d.item2 * term.item2;
-				}
+			double wtq = term.item2;
+			qNorm += wtq;
+			PostingsCursor docs = index.invertedIndex.cursor(term.item1);
+			while(docs.next()){
+				scores[docs.id()] += docs.weight() * wtq;
+				matched[docs.id()] = true;
 			}
 		}
 		qNorm = Math.sqrt(qNorm);
-		for(Tuple<Integer, Double> res : results){
-			res.item2 /= (qNorm * index.documents.get(res.item1).item2);
+		ArrayList<Tuple<Integer, Double>> results = new ArrayList<>();
+		for(int docID=0; docID<scores.length; docID++){
+			if(matched[docID] && !index.isDeleted(docID)){
+				results.add(new Tuple<>(docID, scores[docID] / (qNorm * index.documents.get(docID).item2)));
+			}
 		}
 
 		// Ordenar documentos por similitud y devolver
@@ -77,44 +69,30 @@ public class Cosine implements RetrievalModel
 	}
 
 	/**
-	 * Compute the vector of weights for the specified list of terms.
+	 * Compute the vector of weights for the terms of the specified query, looking up each term in the vocabulary as it
+	 * comes out of the document processor, without creating a list of terms or a {@link String} per term.
 	 *
-	 * @param terms the list of terms.
-	 * @param index the index
+	 * @param queryText    the text of the query.
+	 * @param index        the index
+	 * @param docProcessor the processor to extract the query terms.
 	 * @return a list of {@code Tuple}s with the {@code termID} as first item and the weight as second one.
 	 */
-	protected ArrayList<Tuple<Integer, Double>> computeVector(ArrayList<String> terms, Index index)
+	protected ArrayList<Tuple<Integer, Double>> computeVector(String queryText, Index index, DocumentProcessor docProcessor)
 	{
-		ArrayList<Tuple<Integer, Double>> vector = new ArrayList<>();
-		ArrayList<Double> idf = new ArrayList<>();
-
-		// P1
-		// Rellenar vector de términos con Ftq en el segundo valor de la tupla.
-		for (String s: terms){
-			if(index.vocabulary.containsKey(s)){
-				Tuple<Integer,Double> term = index.vocabulary.get(s);
-				int pos = -1;
-				for(int i=0; i<vector.size(); i++){
-					if(vector.get(i).item1 == term.item1){
-						pos = i;
-						break;
-					}
-				}
-				if (pos < 0){
-					vector.add(new Tuple<>(term.item1, 1.0));
-					idf.add(term.item2);
-				} else{
-					vector.get(pos).item2++;
-				}
-			}
-		}
+		// contar los términos por termID, en orden de aparición
+		TermIdCounter counter = new TermIdCounter();
+		docProcessor.processText(queryText, (chars, length) -> {
+			int termID = index.termID(chars, length);
+			if (termID >= 0)
+				counter.add(termID, 1);
+		});
 
 		// Calcular peso para cada término en la query.
-		for(int i=0; i<vector.size(); i++){
-			Double tftd = 1 + Math.log(vector.get(i).item2);
-			vector.get(i).item2 = tftd * idf.get(i);
+		ArrayList<Tuple<Integer, Double>> vector = new ArrayList<>(counter.size());
+		for (int i = 0; i < counter.size(); i++) {
+			double tftd = 1 + Math.log(counter.count(i));
+			vector.add(new Tuple<>(counter.termID(i), tftd * index.idf(counter.termID(i))));
 		}
-
 		return vector;
 	}
 }
@@ -1,5 +1,7 @@
 package ti;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 
 /**
@@ -38,11 +40,8 @@ public class CosineWithFeedback extends Cosine
 	public ArrayList<Tuple<Integer, Double>> runQuery(String queryText, Index index, DocumentProcessor docProcessor)
 	{
 		// P4
-		// extraer trminos de la consulta
-		ArrayList<String> terms = docProcessor.processText(queryText);
-
-		// calcular el vector consulta
-		ArrayList<Tuple<Integer, Double>> queryVector = computeVector(terms, index);
+		// extraer trminos de la consulta y calcular el vector consulta
+		ArrayList<Tuple<Integer, Double>> queryVector = computeVector(queryText, index, docProcessor);
 		
 		// calcular resultados iniciales
 		ArrayList<Tuple<Integer, Double>> scores = computeScores(queryVector, index);
@@ -63,7 +62,7 @@ public class CosineWithFeedback extends Cosine
 		 * Generar la salida con los primeros 500 resultados.
 		 */
 		
-		ArrayList<Tuple<Integer, Double>> list = computeFeedbackVector(queryVector, kscores, index);
+		ArrayList<Tuple<Integer, Double>> list = computeFeedbackVector(queryVector, kscores, index, docProcessor);
 		return computeScores(list, index); // y devolver resultados
 	}
 	
@@ -73,11 +72,12 @@ public class CosineWithFeedback extends Cosine
 	 * @param queryVector the original query vector.
 	 * @param results     the results with the original query.
 	 * @param index       the index to search in.
+	 * @param docProcessor the processor to extract the terms of the documents if the index has no direct index.
 	 * @return a list of {@code Tuple}s with the {@code termID} as first item and the weight as second one.
 	 */
 	protected ArrayList<Tuple<Integer, Double>> computeFeedbackVector(ArrayList<Tuple<Integer, Double>> queryVector,
 	                                                                  ArrayList<Tuple<Integer, Double>> results,
-	                                                                  Index index)
+	                                                                  Index index, DocumentProcessor docProcessor)
 	{
 		// P4
 		ArrayList<Tuple<Integer,Double>> newQueryVector = new ArrayList<>();
@@ -98,36 +98,40 @@ public class CosineWithFeedback extends Cosine
 		
 		ArrayList<Tuple<Integer,Double>> gammaPart = new ArrayList<>();
 		
-		ArrayList<Tuple<Integer,Double>> betaPart = new ArrayList<>();
-		for(Tuple<Integer,Double> doc : results){
-			int i;
-			for(i=0; i<betaPart.size(); i++){
-				if(doc.item1 == betaPart.get(i).item1){
-					betaPart.get(i).item2 += doc.item2;
-					break;
-				}
-			}
-			if(i == betaPart.size()){
-				betaPart.add(doc);
-			}
+		// Centroide de los documentos relevantes, a partir de sus vectores en el ndice directo
+		double[] betaPart = new double[index.invertedIndex.size()];
+		boolean[] inBeta = new boolean[index.invertedIndex.size()];
+		int[] docIDs = new int[results.size()];
+		for(int i=0; i<docIDs.length; i++){
+			docIDs[i] = results.get(i).item1;
 		}
-		for(Tuple<Integer,Double> doc : betaPart){
-			doc.item2 *= feedbackBeta;
+		PostingsList[] vectors;
+		try{
+			vectors = index.forwardVectors(docIDs, docProcessor);
+		} catch(IOException ex){
+			throw new UncheckedIOException(ex);
 		}
+		for(PostingsList vector : vectors){
+			PostingsCursor terms = vector.cursor();
+			while(terms.next()){
+				betaPart[terms.id()] += terms.weight();
+				inBeta[terms.id()] = true;
+			}
+		}
+		double beta = results.isEmpty() ? 0.0 : feedbackBeta / results.size();
 		
 		// Actualizar qm
-		for(Tuple<Integer,Double> betaDoc : betaPart){
-			int i;
-			for(i=0; i<newQueryVector.size(); i++){
-				if(betaDoc.item1 == newQueryVector.get(i).item1){
-					newQueryVector.get(i).item2 += betaDoc.item2;
-					break;
-				}
+		for(Tuple<Integer,Double> t : newQueryVector){
+			if(inBeta[t.item1]){
+				t.item2 += beta * betaPart[t.item1];
+				inBeta[t.item1] = false;
 			}
-			if(i == newQueryVector.size()){
-				newQueryVector.add(betaDoc);
+		}
+		for(int termID=0; termID<betaPart.length; termID++){
+			if(inBeta[termID]){
+				newQueryVector.add(new Tuple<>(termID, beta * betaPart[termID]));
 			}
-		}	
+		}
 		
 		
 	/*	for(Tuple<Integer,Double> t : gammaPart){ 
@@ -23,4 +23,28 @@ public interface DocumentProcessor
 	 * @return the list of index terms.
 	 */
 	ArrayList<String> processText(String text);
+
+	/**
+	 * Process the given text like {@link #processText(String)}, but give each term to the sink as a slice of a buffer
+	 * instead of returning a list. The default implementation gives the terms of {@link #processText(String)}.
+	 *
+	 * @param text the text to process.
+	 * @param sink the sink to give the index terms to, in order.
+	 */
+	default void processText(String text, TermSink sink)
+	{
+		for (String term : this.processText(text))
+			sink.term(term.toCharArray(), term.length());
+	}
+
+	/**
+	 * Tells whether the terms given by {@link #processText(String)} are stemmed. It is saved with the index, and
+	 * queries must be processed by a processor that stems them the same way (see {@link Index#checkProcessor}).
+	 *
+	 * @return {@code true} if the terms are stemmed.
+	 */
+	default boolean stems()
+	{
+		return false;
+	}
 }
@@ -0,0 +1,121 @@
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads whole document files with NIO into buffers that are reused from one document to the next, so
+ * reading a document takes time linear in its size and allocates nothing but the resulting string once the buffers
+ * have grown to the size of the largest document.
+ * <p>
+ * The text is decoded with the default charset, replacing malformed input, and every line is prefixed with a space
+ * instead of being terminated, exactly as reading it line by line and joining {@code " " + line} used to do. A reader
+ * is not thread-safe; use one per thread.
+ */
+public class DocumentReader
+{
+    protected static final int INITIAL_CAPACITY = 64 * 1024;
+
+    protected final CharsetDecoder decoder;
+    protected ByteBuffer bytes;
+    protected CharBuffer chars;
+    protected char[] text;
+
+    /**
+     * Creates a new reader for the default charset.
+     */
+    public DocumentReader()
+    {
+        this.decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+        this.chars = CharBuffer.allocate(INITIAL_CAPACITY);
+        this.text = new char[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Reads the specified file.
+     *
+     * @param file the file to read.
+     * @return the text of the file, with a space before each line and no line terminators.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    public String read(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8)
+                throw new IOException("File " + file + " is too large to index.");
+            if (this.bytes.capacity() < size)
+                this.bytes = ByteBuffer.allocate((int) size);
+            this.bytes.clear();
+            this.bytes.limit((int) size);
+            while (this.bytes.hasRemaining() && channel.read(this.bytes) >= 0)
+                ;
+            this.bytes.flip();
+        }
+        return this.decode(this.bytes);
+    }
+
+    /**
+     * Decodes the content of a document that is already in memory, such as an entry of an archive, the same way as
+     * {@link #read(File)} does with files.
+     *
+     * @param content the raw bytes of the document.
+     * @return the text of the document, with a space before each line and no line terminators.
+     * @throws IOException if the content cannot be decoded.
+     */
+    public String decode(byte[] content) throws IOException
+    {
+        return this.decode(ByteBuffer.wrap(content));
+    }
+
+    protected String decode(ByteBuffer bytes) throws IOException
+    {
+        // Decode
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8L,
+                (long) Math.ceil(bytes.remaining() * (double) this.decoder.maxCharsPerByte()) + 1);
+        if (this.chars.capacity() < capacity)
+            this.chars = CharBuffer.allocate(capacity);
+        this.chars.clear();
+        this.decoder.reset();
+        CoderResult result = this.decoder.decode(bytes, this.chars, true);
+        if (!result.isUnderflow())
+            result.throwException();
+        result = this.decoder.flush(this.chars);
+        if (!result.isUnderflow())
+            result.throwException();
+        this.chars.flip();
+
+        // Lines
+        char[] in = this.chars.array();
+        int length = this.chars.limit();
+        if (this.text.length < length + 1)
+            this.text = new char[length + 1];
+        char[] out = this.text;
+        int n = 0;
+        if (length > 0)
+            out[n++] = ' ';
+        for (int i = 0; i < length; i++) {
+            char c = in[i];
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' && i + 1 < length && in[i + 1] == '\n')
+                    i++;
+                if (i + 1 < length)
+                    out[n++] = ' ';
+            } else {
+                out[n++] = c;
+            }
+        }
+        return new String(out, 0, n);
+    }
+}
@@ -0,0 +1,22 @@
+package ti;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This interface represents a stream of raw documents to index, such as the files of a directory tree or the entries
+ * of an archive. Documents are given one after the other, always in the same order for the same input, so that they
+ * get the same {@code docID}s every time they are indexed.
+ *
+ * @see CollectionSource
+ */
+public interface DocumentSource extends Closeable
+{
+    /**
+     * Returns the next document.
+     *
+     * @return the next document, or {@code null} if there are no more documents.
+     * @throws IOException if an error occurs while reading the source.
+     */
+    SourceDocument next() throws IOException;
+}
@@ -0,0 +1,349 @@
+package ti;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class stores the cached version of the documents in a single, append-only, block-compressed file.
+ * <p>
+ * Documents are appended to an in-memory block, which is compressed and written to the {@code docstore} file once it
+ * reaches {@link #BLOCK_BYTES} bytes. Each block is stored as its uncompressed and compressed {@code int} lengths
+ * followed by the deflated bytes. Inside a block, each document is its title and body as {@code int}-prefixed UTF-8
+ * strings.
+ * <p>
+ * The {@code docstore.idx} file maps each {@code docID} onto the offset of its block in the {@code docstore} file and
+ * its offset inside the uncompressed block: an {@code int} count followed by a {@code long} and an {@code int} per
+ * document. Reading a document then costs one positioned read and one block decompression.
+ */
+public class DocumentStore
+{
+    /**
+     * The uncompressed size, in bytes, at which a block is compressed and written.
+     */
+    public static final int BLOCK_BYTES = 64 * 1024;
+
+    protected final File dataFile;
+    protected final File tableFile;
+
+    protected long[] blockOffsets;  // [docID] -> offset of the block in the data file, or -1
+    protected int[] inBlockOffsets; // [docID] -> offset in the uncompressed block
+    protected int count;
+    protected boolean tableLoaded;
+
+    protected FileChannel reader;
+    protected FileChannel writer;
+    protected ByteArrayOutputStream block;
+    protected DataOutputStream blockOut;
+    protected int[] pendingDocs;
+    protected int pendingCount;
+
+    /**
+     * Creates a new document store in the specified index directory.
+     *
+     * @param path the index directory.
+     */
+    public DocumentStore(File path)
+    {
+        this.dataFile = new File(path, "docstore");
+        this.tableFile = new File(path, "docstore.idx");
+        this.blockOffsets = new long[0];
+        this.inBlockOffsets = new int[0];
+        this.count = 0;
+        this.tableLoaded = false;
+        this.block = new ByteArrayOutputStream(BLOCK_BYTES + BLOCK_BYTES / 4);
+        this.blockOut = new DataOutputStream(this.block);
+        this.pendingDocs = new int[64];
+        this.pendingCount = 0;
+    }
+
+    /**
+     * Checks whether a document store exists in the specified index directory.
+     *
+     * @param path the index directory.
+     * @return {@code true} if the store exists.
+     */
+    public static boolean exists(File path)
+    {
+        return new File(path, "docstore.idx").exists();
+    }
+
+    /**
+     * Appends a document to the store. A store that was not {@link #get read} before is created anew on the first
+     * append, replacing any existing files.
+     *
+     * @param docID   the ID of the document.
+     * @param docText a {@link Tuple} containing the document title and its body.
+     * @throws IOException if an error occurs while writing the store.
+     */
+    public synchronized void append(int docID, Tuple<String, String> docText) throws IOException
+    {
+        if (this.writer == null)
+            this.openWriter();
+
+        int offset = this.block.size();
+        writeString(this.blockOut, docText.item1);
+        writeString(this.blockOut, docText.item2);
+
+        this.ensureCapacity(docID + 1);
+        this.blockOffsets[docID] = -1;
+        this.inBlockOffsets[docID] = offset;
+        this.count = Math.max(this.count, docID + 1);
+        if (this.pendingCount == this.pendingDocs.length)
+            this.pendingDocs = Arrays.copyOf(this.pendingDocs, 2 * this.pendingCount);
+        this.pendingDocs[this.pendingCount++] = docID;
+
+        if (this.block.size() >= BLOCK_BYTES)
+            this.flushBlock();
+    }
+
+    /**
+     * Writes the pending block and the document table to disk.
+     *
+     * @throws IOException if an error occurs while writing the store.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (this.writer == null)
+            return;
+        this.flushBlock();
+        this.writer.force(false);
+
+        // The table is replaced atomically, so it always matches a complete flush of the data file
+        File tmp = new File(this.tableFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(this.count);
+            for (int docID = 0; docID < this.count; docID++) {
+                out.writeLong(this.blockOffsets[docID]);
+                out.writeInt(this.inBlockOffsets[docID]);
+            }
+        }
+        Files.move(tmp.toPath(), this.tableFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the size of the data file, which only covers the flushed documents right after a {@link #flush}.
+     *
+     * @return the size of the data file, in bytes.
+     * @throws IOException if an error occurs while reading the store.
+     */
+    public synchronized long dataLength() throws IOException
+    {
+        return this.writer != null ? this.writer.position() : this.dataFile.length();
+    }
+
+    /**
+     * Reopens the store to go on appending documents after its first {@code count} ones, as they were when the store
+     * was flushed with a data file of {@code length} bytes. Whatever was written after that flush is discarded.
+     *
+     * @param count  the number of documents to keep.
+     * @param length the size of the data file to keep, as given by {@link #dataLength} after the flush.
+     * @throws IOException if the store does not have those documents, or an error occurs while reading it.
+     */
+    public synchronized void resume(int count, long length) throws IOException
+    {
+        if (this.writer != null)
+            throw new IllegalStateException("The document store is already being written.");
+        if (count == 0)
+            return; // nothing to keep; the store is created anew on the first append
+        this.loadTable();
+        if (this.count < count || this.dataFile.length() < length)
+            throw new IOException("The document store is shorter than expected.");
+        this.count = count;
+        Arrays.fill(this.blockOffsets, count, this.blockOffsets.length, -1L);
+        this.writer = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.WRITE);
+        this.writer.truncate(length);
+        this.writer.position(length);
+    }
+
+    /**
+     * Returns the specified document.
+     *
+     * @param docID the ID of the document.
+     * @return a {@link Tuple} containing the document title and its body.
+     * @throws IOException if an error occurs while reading the store, or the document is not stored.
+     */
+    public Tuple<String, String> get(int docID) throws IOException
+    {
+        long blockOffset;
+        int inBlockOffset;
+        synchronized (this) {
+            if (!this.tableLoaded && this.writer == null)
+                this.loadTable();
+            if (docID < 0 || docID >= this.count || this.blockOffsets[docID] < 0)
+                throw new IOException("Document " + docID + " is not in the store.");
+            blockOffset = this.blockOffsets[docID];
+            inBlockOffset = this.inBlockOffsets[docID];
+            if (this.reader == null)
+                this.reader = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.READ);
+        }
+
+        ByteBuffer header = this.read(blockOffset, 8);
+        int rawLength = header.getInt();
+        ByteBuffer compressed = this.read(blockOffset + 8, header.getInt());
+
+        Inflater inflater = new Inflater();
+        byte[] raw = new byte[rawLength];
+        try {
+            inflater.setInput(compressed.array(), 0, compressed.limit());
+            inflater.inflate(raw);
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupted document store block at offset " + blockOffset + ".", ex);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        in.position(inBlockOffset);
+        String title = readString(in);
+        String body = readString(in);
+        return new Tuple<>(title, body);
+    }
+
+    /**
+     * Returns the number of documents in the store, including gaps in the {@code docID}s.
+     *
+     * @return the number of documents.
+     * @throws IOException if an error occurs while reading the store.
+     */
+    public synchronized int size() throws IOException
+    {
+        if (!this.tableLoaded && this.writer == null)
+            this.loadTable();
+        return this.count;
+    }
+
+    /**
+     * Returns the size, in bytes, of the store files.
+     *
+     * @return the size of the store files.
+     */
+    public long sizeOnDisk()
+    {
+        return this.dataFile.length() + this.tableFile.length();
+    }
+
+    /**
+     * Flushes the store and closes its files.
+     *
+     * @throws IOException if an error occurs while writing the store.
+     */
+    public synchronized void close() throws IOException
+    {
+        this.flush();
+        if (this.writer != null)
+            this.writer.close();
+        if (this.reader != null)
+            this.reader.close();
+        this.writer = null;
+        this.reader = null;
+    }
+
+    protected void openWriter() throws IOException
+    {
+        if (this.tableLoaded) {
+            this.writer = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            this.writer.position(this.writer.size());
+        } else {
+            this.writer = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    protected void flushBlock() throws IOException
+    {
+        if (this.pendingCount == 0)
+            return;
+
+        byte[] raw = this.block.toByteArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] compressed = new byte[raw.length + raw.length / 100 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        deflater.end();
+
+        long offset = this.writer.position();
+        ByteBuffer out = ByteBuffer.allocate(8 + length);
+        out.putInt(raw.length).putInt(length).put(compressed, 0, length).flip();
+        while (out.hasRemaining())
+            this.writer.write(out);
+
+        for (int i = 0; i < this.pendingCount; i++)
+            this.blockOffsets[this.pendingDocs[i]] = offset;
+        this.pendingCount = 0;
+        this.block.reset();
+    }
+
+    protected void loadTable() throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(this.tableFile.toPath())))) {
+            this.count = in.readInt();
+            this.ensureCapacity(this.count);
+            for (int docID = 0; docID < this.count; docID++) {
+                this.blockOffsets[docID] = in.readLong();
+                this.inBlockOffsets[docID] = in.readInt();
+            }
+        }
+        this.tableLoaded = true;
+    }
+
+    protected void ensureCapacity(int capacity)
+    {
+        if (capacity > this.blockOffsets.length) {
+            int length = Math.max(capacity, 2 * this.blockOffsets.length);
+            int old = this.blockOffsets.length;
+            this.blockOffsets = Arrays.copyOf(this.blockOffsets, length);
+            this.inBlockOffsets = Arrays.copyOf(this.inBlockOffsets, length);
+            Arrays.fill(this.blockOffsets, old, length, -1L);
+        }
+    }
+
+    protected ByteBuffer read(long position, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (this.reader.read(buf, position + buf.position()) < 0)
+                throw new IOException("Unexpected end of document store.");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    protected static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(ByteBuffer in)
+    {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,200 @@
+package ti;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class appends the cached version of documents to a {@link DocumentStore} on a dedicated thread, so that the
+ * indexer does not wait for compression and disk writes.
+ * <p>
+ * Documents are handed over in batches, one per chunk of the indexer, through a bounded queue. When the writer falls
+ * behind and the queue is full, {@link #write} blocks, which keeps the documents waiting to be written within a fixed
+ * number of batches. {@link #sync} waits for the batches queued so far, so that the store can be flushed at a known
+ * document. The first error of the writer thread is kept and thrown by the next call to {@link #write}, {@link #sync}
+ * or {@link #close}, so it is never lost; the batches after it are discarded. Callers that wait for the thread give up
+ * if it has stopped, so they never wait for batches that will not be written.
+ */
+public class DocumentStoreWriter
+{
+    /**
+     * The default number of batches that may wait in the queue.
+     */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    protected static final Batch END = new Batch(-1, null);
+    protected static final long POLL_MILLIS = 100;
+
+    protected final DocumentStore store;
+    protected final IndexingStats stats;
+    protected final BlockingQueue<Batch> queue;
+    protected final Thread thread;
+    protected volatile IOException failure;
+    protected boolean closed;
+
+    /**
+     * Creates a new writer for the specified store, and starts its thread.
+     *
+     * @param store    the store to append the documents to.
+     * @param capacity the number of batches that may wait in the queue.
+     * @param stats    the statistics to record the {@code cache.write} stage to, or {@code null}.
+     */
+    public DocumentStoreWriter(DocumentStore store, int capacity, IndexingStats stats)
+    {
+        this.store = store;
+        this.stats = stats;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::drain, "document-store-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a batch of consecutive documents to be appended to the store, waiting for room in the queue if needed.
+     *
+     * @param docBase   the {@code docID} of the first document of the batch.
+     * @param documents the title and body of each document.
+     * @throws IOException if an earlier batch could not be written, or the thread is interrupted while waiting.
+     */
+    public void write(int docBase, List<Tuple<String, String>> documents) throws IOException
+    {
+        if (this.closed)
+            throw new IllegalStateException("The writer is closed.");
+        this.checkFailure();
+        this.put(new Batch(docBase, documents));
+    }
+
+    /**
+     * Waits until all batches queued so far are appended to the store. The store itself is not flushed.
+     *
+     * @throws IOException if any batch could not be written, or the thread is interrupted while waiting.
+     */
+    public void sync() throws IOException
+    {
+        if (this.closed)
+            throw new IllegalStateException("The writer is closed.");
+        Batch marker = new Batch(-1, List.of());
+        this.put(marker);
+        try {
+            while (!marker.done.await(POLL_MILLIS, TimeUnit.MILLISECONDS))
+                this.checkAlive();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the cached documents.", ex);
+        }
+        this.checkFailure();
+    }
+
+    /**
+     * Waits until all queued batches are written and stops the thread. The store itself is not flushed.
+     *
+     * @throws IOException if any batch could not be written, or the thread is interrupted while waiting.
+     */
+    public void close() throws IOException
+    {
+        if (!this.closed) {
+            this.closed = true;
+            this.put(END);
+            try {
+                this.thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing the cached documents.", ex);
+            }
+        }
+        this.checkFailure();
+    }
+
+    /**
+     * Queues a batch, waiting for room in the queue while the thread is alive.
+     *
+     * @param batch the batch.
+     * @throws IOException if the thread has stopped, or the calling thread is interrupted while waiting.
+     */
+    protected void put(Batch batch) throws IOException
+    {
+        this.checkAlive();
+        try {
+            while (!this.queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                this.checkAlive();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the cached documents.", ex);
+        }
+    }
+
+    /**
+     * Checks that the thread is still running, so that its batches will be written.
+     *
+     * @throws IOException the error of the thread, or a new one if it has stopped without one.
+     */
+    protected void checkAlive() throws IOException
+    {
+        if (!this.thread.isAlive()) {
+            this.checkFailure();
+            throw new IOException("The writer thread of the cached documents has stopped.");
+        }
+    }
+
+    protected void checkFailure() throws IOException
+    {
+        IOException failure = this.failure;
+        if (failure != null)
+            throw new IOException("Cannot write the cached documents.", failure);
+    }
+
+    /**
+     * Appends the queued batches to the store until the end of the queue.
+     */
+    protected void drain()
+    {
+        while (true) {
+            Batch batch;
+            try {
+                batch = this.queue.take();
+            } catch (InterruptedException ex) {
+                if (this.failure == null)
+                    this.failure = new IOException("The writer thread was interrupted.", ex);
+                return;
+            }
+            if (batch == END)
+                return;
+            if (this.failure != null || batch.documents.isEmpty()) {
+                batch.done.countDown();
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < batch.documents.size(); i++)
+                    this.store.append(batch.docBase + i, batch.documents.get(i));
+            } catch (IOException ex) {
+                this.failure = ex;
+            } catch (Throwable ex) {
+                this.failure = new IOException(ex);
+            } finally {
+                batch.done.countDown();
+            }
+            IndexingStats.record(this.stats, "cache.write", start);
+        }
+    }
+
+    /**
+     * A batch of consecutive documents.
+     */
+    protected static class Batch
+    {
+        protected final int docBase;
+        protected final List<Tuple<String, String>> documents;
+        protected final CountDownLatch done = new CountDownLatch(1);
+
+        protected Batch(int docBase, List<Tuple<String, String>> documents)
+        {
+            this.docBase = docBase;
+            this.documents = documents;
+        }
+    }
+}
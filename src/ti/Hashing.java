@@ -0,0 +1,43 @@
+package ti;
+
+/**
+ * This class has the helpers shared by the open-addressing hash tables of terms, like {@link TermIdTable},
+ * {@link TermIdCounter}, {@link TermSet} and the cache of {@link CachedStemmer}.
+ */
+class Hashing
+{
+    private Hashing()
+    {
+    }
+
+    /**
+     * Checks whether a term is made of the first characters of a buffer.
+     *
+     * @param term   the term.
+     * @param chars  the buffer.
+     * @param length the number of characters of the buffer to compare.
+     * @return {@code true} if the term and the characters are equal and {@code false} otherwise.
+     */
+    static boolean equals(String term, char[] chars, int length)
+    {
+        if (term.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != chars[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the bits of a hash code, so that similar strings do not cluster in the table.
+     *
+     * @param hash the hash code.
+     * @return the mixed hash code.
+     */
+    static int mix(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
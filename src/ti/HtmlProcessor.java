@@ -20,14 +20,39 @@ public class HtmlProcessor implements DocumentProcessor
 
 	// P3
 	public HashSet<String> stopwords;
+	protected TermSet stopwordSet;
+
 	/**
-	 * Creates a new HTML processor.
+	 * The characters removed by {@link #normalize}, as a regular expression.
+	 */
+	protected static final String REMOVED_CHARS = "[/(){}¡!Â¿?â€¦.,:;+*=&|-â€“_'â€œâ€�\\[\\]\\-]";
+	protected final Tokenizer normalizer = new Tokenizer(REMOVED_CHARS);
+	// Stemmer de Porter con cache, uno por hilo, ver CachedStemmer; null si no se hace stemming
+	protected final ThreadLocal<CachedStemmer> stemmers;
+	// Un analizador por hilo, porque reutiliza sus buffers
+	protected final ThreadLocal<Analyzer> analyzers = ThreadLocal.withInitial(this::newAnalyzer);
+	/**
+	 * Creates a new HTML processor that does not stem terms.
 	 *
 	 * @param pathToStopWords the path to the file with stopwords, or {@code null} if stopwords are not filtered.
 	 * @throws IOException if an error occurs while reading stopwords.
 	 */
 	public HtmlProcessor(File pathToStopWords) throws IOException
 	{
+		this(pathToStopWords, false);
+	}
+
+	/**
+	 * Creates a new HTML processor.
+	 *
+	 * @param pathToStopWords the path to the file with stopwords, or {@code null} if stopwords are not filtered.
+	 * @param stemming whether to stem terms with the Porter stemmer.
+	 * @throws IOException if an error occurs while reading stopwords.
+	 */
+	public HtmlProcessor(File pathToStopWords, boolean stemming) throws IOException
+	{
+		this.stemmers = stemming
+			? ThreadLocal.withInitial(() -> new CachedStemmer(CachedStemmer.DEFAULT_CAPACITY)) : null;
 		// P3
 		// cargar stopwords
 		if(pathToStopWords == null){
@@ -47,6 +72,7 @@ public class HtmlProcessor implements DocumentProcessor
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+			stopwordSet = new TermSet(stopwords);
 		}
 	}
 
@@ -65,6 +91,7 @@ public class HtmlProcessor implements DocumentProcessor
 
 	/**
 	 * Process the given text (tokenize, normalize, filter stopwords and stemize) and return the list of terms to index.
+	 * The text is plain text, such as the title or body given by {@link #parse}, or a query, so it is not parsed again.
 	 *
 	 * @param text the text to process.
 	 * @return the list of index terms.
@@ -73,20 +100,45 @@ public class HtmlProcessor implements DocumentProcessor
 	{
 		// P3
 		// tokenizar, normalizar, stopword, stem, etc.
-		Tuple<String,String> content = this.parse(text);
-		String normalizedContent = normalize(content.item1 + " " + content.item2);
-		ArrayList<String> tokens = tokenize(normalizedContent);
-		ArrayList<String> terms = new ArrayList<>();
-		for(int i=0; i<tokens.size(); i++){
-			try {
-				if(!this.isStopWord(tokens.get(i))){
-					terms.add(stem(tokens.get(i)));
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		return terms;
+		return this.analyzers.get().analyze(text);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The text goes through the {@link Analyzer} of the thread, whose stages work on the buffer of its
+	 * {@link Tokenizer}, so only the terms that the sink keeps become strings.
+	 */
+	@Override
+	public void processText(String text, TermSink sink)
+	{
+		this.analyzers.get().analyze(text, sink);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean stems()
+	{
+		return this.stemmers != null;
+	}
+
+	/**
+	 * Creates the analyzer of a thread: tokenize, normalize, filter stopwords and stem, if enabled.
+	 *
+	 * @return the analyzer.
+	 */
+	protected Analyzer newAnalyzer()
+	{
+		Tokenizer tokenizer = new Tokenizer(REMOVED_CHARS);
+		ArrayList<Analyzer.Stage> stages = new ArrayList<>();
+		stages.add(tokenizer::normalize);
+		if(stopwordSet != null)
+			stages.add(Analyzer.stopwords(stopwordSet));
+		if(stemmers != null)
+			stages.add(stemmers.get());
+		return new Analyzer(tokenizer, stages.toArray(new Analyzer.Stage[0]));
 	}
 
 	/**
@@ -117,7 +169,8 @@ public class HtmlProcessor implements DocumentProcessor
 	protected String normalize(String text)
 	{
 		//P3
-		return text.toLowerCase().replaceAll("[/(){}¡!Â¿?â€¦.,:;+*=&|-â€“_'â€œâ€�\\[\\]\\-]", "");
+		// Con una tabla de caracteres en lugar de replaceAll, ver Tokenizer
+		return this.normalizer.normalize(text);
 	}
 
 	/**
@@ -143,10 +196,6 @@ public class HtmlProcessor implements DocumentProcessor
 	protected String stem(String term)
 	{
 		// P3
-		return term;
-		/*
-		KrovetzStemmer stemmer = new KrovetzStemmer();
-		return stemmer.stem(term);
-		*/
+		return this.stemmers == null ? term : this.stemmers.get().stem(term);
 	}
 }
@@ -1,13 +1,18 @@
 package ti;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * This class represents the index of the search engine.
@@ -19,6 +24,10 @@ import java.util.zip.GZIPOutputStream;
 public class Index
 {
     protected final int DOCS_PER_CACHE_BLOCK = 20;
+    /**
+     * The name of the index file in the index directory.
+     */
+    public static final String INDEX_FILE = "index";
 
     protected String path;
     /**
@@ -27,8 +36,9 @@ public class Index
      * {@code [term] -> (termID, IDF)}
      * <p>
      * It maps a term {@link String} onto a {@link Tuple} containing the {@code termID} and its IDF score.
+     * While indexing it is a {@link HashMap}; after {@link #load} it is a read-only {@link TermDictionary}.
      */
-    public HashMap<String, Tuple<Integer, Double>> vocabulary; // [term] -> (termID, IDF)
+    public Map<String, Tuple<Integer, Double>> vocabulary; // [term] -> (termID, IDF)
     /**
      * The list of documents in the index.
      * <p>
@@ -44,40 +54,228 @@ public class Index
      * {@code [termID] -> (docID, weight)+}
      * </p>
      * The {@code i}-th element corresponds to the postings list of the term with {@code termID=i}.
-     * Each posting is a {@link Tuple} containing a {@code docID} and the {@code weight} of the term in that document.
+     * Each posting in the {@link PostingsList} holds a {@code docID} and the {@code weight} of the term in that document.
+     * After {@link #load}, the lists may be read in place from the index file (see {@link LoadMode}).
      */
-    public ArrayList<ArrayList<Tuple<Integer, Double>>> invertedIndex; // [termID] -> (docID, weight)+
+    public PostingsIndex invertedIndex; // [termID] -> (docID, weight)+
     /**
      * The direct index.
      * <p>
      * {@code [docID] -> (termID, weight)+}
      * <p>
      * The {@code i}-th element corresponds to the postings list of the document with {@code docID=i}.
-     * Each posting is a {@link Tuple} containing a {@code termID} and the {@code weight} of that term in the document.
+     * Each posting in the {@link PostingsList} holds a {@code termID} and the {@code weight} of that term in the document.
+     * The direct index is optional and is {@code null} if the index was built without it; use {@link #forwardVectors}
+     * to get document vectors either way.
+     */
+    public PostingsIndex directIndex; // [docID] -> (termID, weight)+
+    /**
+     * Whether the terms of the index are stemmed (see {@link DocumentProcessor#stems}). It is saved in the
+     * {@code analysis} section of the index file; indexes without it are not stemmed.
      */
-    public ArrayList<ArrayList<Tuple<Integer, Double>>> directIndex; // [docID] -> (termID, weight)+
+    protected boolean stemmed;
+
+    /**
+     * How the postings files are accessed after {@link #load}.
+     */
+    public enum LoadMode
+    {
+        /**
+         * Decode every postings list into the heap when loading.
+         */
+        MEMORY,
+        /**
+         * Memory-map the postings files and decode lists in place when they are accessed.
+         */
+        MAPPED,
+        /**
+         * Read and decode each postings list from disk on first access, keeping decoded lists in a bounded cache.
+         */
+        LAZY
+    }
+
+    protected LoadMode loadMode;
+    /**
+     * The maximum estimated heap size, in bytes, of the postings lists cached by each postings file in
+     * {@link LoadMode#LAZY} mode.
+     */
+    public long postingsCacheBytes = 64L * 1024 * 1024;
+    /**
+     * The maximum estimated heap size, in bytes, of the decoded documents kept in memory by
+     * {@link #getCachedDocument}. Set it to {@code 0} to disable the cache.
+     */
+    public long documentCacheBytes = 32L * 1024 * 1024;
+    /**
+     * The name of the file with the deleted documents in the index directory.
+     */
+    public static final String DELETED_FILE = "deleted";
+    protected BitSet deleted; // [docID] -> whether the document is deleted, or null if none is
+    protected HashMap<String, ArrayList<Integer>> docIDsByName;
+    protected ArrayList<Closeable> openFiles = new ArrayList<>();
+    protected DocumentStore documentStore;
+    protected LruCache<Integer, Tuple<String, String>> documentCache;
+    protected volatile double[] termIdfs; // [termID] -> IDF, built by the first call to idf(int)
 
     /**
      * Creates a new index to be loaded from or stored in the specified directory.
+     * Postings are {@link LoadMode#MAPPED mapped} when the index is loaded.
      * @param path the directory to store the index files.
      */
     public Index(String path)
+    {
+        this(path, LoadMode.MAPPED);
+    }
+    /**
+     * Creates a new index to be loaded from or stored in the specified directory.
+     * @param path the directory to store the index files.
+     * @param loadMode how postings are accessed after {@link #load}.
+     */
+    public Index(String path, LoadMode loadMode)
     {
         this.path = path;
+        this.loadMode = loadMode;
         this.vocabulary = new HashMap<>();
         this.documents = new ArrayList<>();
-        this.invertedIndex = new ArrayList<>();
-        this.directIndex = new ArrayList<>();
+        this.invertedIndex = new PostingsIndex();
+        this.directIndex = new PostingsIndex();
+    }
+
+    /**
+     * Opens and loads the index stored in the specified directory, which may be a single index or a
+     * {@link SegmentedIndex segmented} one.
+     * @param path the directory of the index.
+     * @param loadMode how postings are accessed after loading.
+     * @return the loaded index.
+     * @throws Exception if an error occurs while loading the index.
+     */
+    public static Index open(String path, LoadMode loadMode) throws Exception
+    {
+        Index index = SegmentedIndex.isSegmented(path) ? new SegmentedIndex(path, loadMode) : new Index(path, loadMode);
+        index.load();
+        return index;
+    }
+
+    /**
+     * Computes the IDF of a term.
+     * @param documents the number of documents in the collection.
+     * @param df the number of documents that contain the term.
+     * @return the IDF of the term.
+     */
+    public static double idf(int documents, int df)
+    {
+        return Math.log(1.0 + ((double) documents / df));
+    }
+    /**
+     * Computes the number of documents that contain a term from its IDF, as the inverse of {@link #idf}.
+     * @param documents the number of documents in the collection.
+     * @param idf the IDF of the term.
+     * @return the number of documents that contain the term.
+     */
+    public static int df(int documents, double idf)
+    {
+        return (int) Math.round(documents / Math.expm1(idf));
+    }
+
+    /**
+     * Looks up the {@code termID} of a term of the vocabulary given as a slice of a buffer, such as the terms given to
+     * a {@link TermSink}. A loaded {@link TermDictionary} is probed without allocating; any other vocabulary is looked
+     * up by the term as a string.
+     * @param chars the buffer with the term at its start.
+     * @param length the length of the term.
+     * @return the {@code termID} of the term, or {@code -1} if it is not in the vocabulary.
+     */
+    public int termID(char[] chars, int length)
+    {
+        if (this.vocabulary instanceof TermDictionary)
+            return ((TermDictionary) this.vocabulary).termID(chars, length);
+        Tuple<Integer, Double> term = this.vocabulary.get(new String(chars, 0, length));
+        return term == null ? -1 : term.item1;
+    }
+
+    /**
+     * Returns the IDF of a term of the loaded index. The IDFs are read from the vocabulary into an array by
+     * {@code termID} the first time.
+     * @param termID the {@code termID} of the term.
+     * @return the IDF of the term.
+     */
+    public double idf(int termID)
+    {
+        double[] idfs = this.termIdfs;
+        if (idfs == null)
+            idfs = this.loadIdfs();
+        return idfs[termID];
+    }
+
+    /**
+     * Reads the IDF of each term from the vocabulary, unless another thread already did.
+     * @return the IDF of each term by {@code termID}.
+     */
+    protected synchronized double[] loadIdfs()
+    {
+        if (this.termIdfs == null) {
+            double[] idfs = new double[this.vocabulary.size()];
+            if (this.vocabulary instanceof TermDictionary) {
+                TermDictionary.TermCursor cursor = ((TermDictionary) this.vocabulary).cursor();
+                while (cursor.next()) {
+                    // Dropped duplicates may leave gaps in the termIDs of the dictionary
+                    if (cursor.termID() >= idfs.length)
+                        idfs = Arrays.copyOf(idfs, cursor.termID() + 1);
+                    idfs[cursor.termID()] = cursor.idf();
+                }
+            } else {
+                for (Tuple<Integer, Double> term : this.vocabulary.values()) {
+                    if (term.item1 >= idfs.length)
+                        idfs = Arrays.copyOf(idfs, term.item1 + 1);
+                    idfs[term.item1] = term.item2;
+                }
+            }
+            this.termIdfs = idfs;
+        }
+        return this.termIdfs;
     }
 
     /**
      * Returns the cached version of the specified document.
+     * <p>
+     * Documents are read from the {@link DocumentStore}. Indexes built before the store existed keep one gzipped
+     * file per document in {@code cacheN} directories, which are still read if there is no store.
      * @param docID the ID of the document.
      * @return a {@link Tuple} containing the document title and its body.
      * @throws Exception if an error occurs while accessing the cache.
      */
     public Tuple<String,String> getCachedDocument(int docID) throws Exception
     {
+        LruCache<Integer, Tuple<String, String>> cache = this.getDocumentCache();
+        Tuple<String, String> document = cache.get(docID);
+        if (document == null) {
+            document = this.readCachedDocument(docID);
+            cache.put(docID, document);
+        }
+        return document;
+    }
+    /**
+     * Returns the in-memory cache of decoded documents used by {@link #getCachedDocument}, bounded by
+     * {@link #documentCacheBytes}. Its counters tell how often documents were served without reading the store.
+     * @return the cache of decoded documents.
+     */
+    public synchronized LruCache<Integer, Tuple<String, String>> getDocumentCache()
+    {
+        if (this.documentCache == null)
+            this.documentCache = new LruCache<>(this.documentCacheBytes,
+                    doc -> 64 + 2L * (doc.item1.length() + doc.item2.length()));
+        return this.documentCache;
+    }
+    /**
+     * Reads the cached version of the specified document from disk.
+     * @param docID the ID of the document.
+     * @return a {@link Tuple} containing the document title and its body.
+     * @throws Exception if an error occurs while accessing the cache.
+     */
+    protected Tuple<String,String> readCachedDocument(int docID) throws Exception
+    {
+        if (!this.hasLegacyCache())
+            return this.getDocumentStore().get(docID);
+
         int block = docID % this.DOCS_PER_CACHE_BLOCK;
         File blockPath = Paths.get(this.path, "cache"+block).toFile();
         File filePath = new File(blockPath, docID+"");
@@ -91,43 +289,395 @@ public class Index
     }
     /**
      * Sets the cached version of the specified document.
+     * The document is appended to the {@link DocumentStore}, which is flushed by {@link #save}.
      * @param docID the ID of the document.
      * @param docText a {@link Tuple} containing the document title and its body.
      *                @throws IOException  if an error occurs while accessing the cache.
      */
     public void setCachedDocument(int docID, Tuple<String,String> docText) throws IOException
     {
-        int block = docID % this.DOCS_PER_CACHE_BLOCK;
-        File blockPath = Paths.get(this.path, "cache"+block).toFile();
-        if(!blockPath.exists())
-            blockPath.mkdir();
+        this.getDocumentStore().append(docID, docText);
+    }
+    /**
+     * Returns the store with the cached version of the documents, creating it if needed.
+     * @return the document store.
+     */
+    protected synchronized DocumentStore getDocumentStore()
+    {
+        if (this.documentStore == null) {
+            this.documentStore = new DocumentStore(new File(this.path));
+            this.openFiles.add(this.documentStore::close);
+        }
+        return this.documentStore;
+    }
+    /**
+     * Checks whether this index only has the per-document cache files of older indexes.
+     * @return {@code true} if documents must be read from the {@code cacheN} directories.
+     */
+    protected boolean hasLegacyCache()
+    {
+        return this.documentStore == null && !DocumentStore.exists(new File(this.path))
+                && Paths.get(this.path, "cache0").toFile().exists();
+    }
 
-        File filePath = new File(blockPath, docID+"");
-        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(filePath)));
-        oos.writeObject(docText.item1);
-        oos.writeObject(docText.item2);
-        oos.close();
+    /**
+     * Returns the vectors of the specified documents: {@code (termID, weight)+}, sorted by {@code termID}.
+     * <p>
+     * They are read from the direct index if the index has one. Otherwise each document is read back from the
+     * document store and analyzed again, weighting its terms like the indexer does, so the cost depends on the size
+     * of the documents requested and not on the size of the index. This is meant for a handful of documents, like
+     * the top results used for relevance feedback.
+     * @param docIDs the IDs of the documents.
+     * @param docProcessor the processor to extract the terms of the documents, which should analyze text like the
+     * one the index was built with.
+     * @return the vector of each document, in the same order as {@code docIDs}.
+     * @throws IOException if an error occurs while reading a document from the store.
+     */
+    public PostingsList[] forwardVectors(int[] docIDs, DocumentProcessor docProcessor) throws IOException
+    {
+        PostingsList[] vectors = new PostingsList[docIDs.length];
+        for (int i = 0; i < docIDs.length; i++) {
+            if (this.directIndex != null)
+                vectors[i] = this.directIndex.get(docIDs[i]);
+            else
+                vectors[i] = this.rebuildVector(docIDs[i], docProcessor);
+        }
+        return vectors;
+    }
+    /**
+     * Rebuilds the vector of a document from its cached version: terms in the title count twice, and each term
+     * weighs {@code (1 + log(count)) * IDF}, as in the inverted index.
+     * @param docID the ID of the document.
+     * @param docProcessor the processor to extract the terms of the document.
+     * @return the vector of the document, sorted by {@code termID}.
+     * @throws IOException if an error occurs while reading the document from the store.
+     */
+    protected PostingsList rebuildVector(int docID, DocumentProcessor docProcessor) throws IOException
+    {
+        Tuple<String, String> document;
+        try {
+            document = this.getCachedDocument(docID);
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Cannot read document " + docID + " from the document store.", ex);
+        }
+
+        TermIdCounter counter = new TermIdCounter();
+        String[] fields = {document.item1, document.item2};
+        for (int f = 0; f < fields.length; f++) {
+            double count = f == 0 ? 2 : 1;
+            docProcessor.processText(fields[f], (chars, length) -> {
+                int termID = this.termID(chars, length);
+                if (termID >= 0)
+                    counter.add(termID, count);
+            });
+        }
+
+        PostingsList vector = new PostingsList(counter.size());
+        for (int i = 0; i < counter.size(); i++)
+            vector.add(counter.termID(i), (1 + Math.log(counter.count(i))) * this.idf(counter.termID(i)));
+        vector.sortById();
+        return vector;
+    }
+
+    /**
+     * Tells whether the terms of the index are stemmed, so that queries are processed the same way.
+     * @return {@code true} if the terms are stemmed.
+     */
+    public boolean isStemmed()
+    {
+        return this.stemmed;
+    }
+    /**
+     * Checks that the specified processor processes text like the documents of the index were, so that the terms of
+     * queries match those of the index.
+     * @param docProcessor the processor of queries or documents.
+     * @throws IllegalArgumentException if the processor does not stem terms like the index.
+     */
+    public void checkProcessor(DocumentProcessor docProcessor)
+    {
+        if (docProcessor.stems() != this.stemmed)
+            throw new IllegalArgumentException("The index in " + this.path + " is " + (this.stemmed ? "" : "not ")
+                    + "stemmed, but the processor " + (docProcessor.stems() ? "stems" : "does not stem") + " terms.");
+    }
+    /**
+     * Writes the {@code analysis} section of an index file.
+     * @param writer the writer of the index file.
+     * @param stemmed whether the terms of the index are stemmed.
+     * @throws IOException if an error occurs while writing the section.
+     */
+    protected static void writeAnalysis(IndexFileWriter writer, boolean stemmed) throws IOException
+    {
+        writer.beginSection("analysis").writeBoolean(stemmed);
+    }
+    /**
+     * Reads the {@code analysis} section of an index file.
+     * @param reader the reader of the index file.
+     * @return whether the terms of the index are stemmed.
+     * @throws IOException if an error occurs while reading the section.
+     */
+    protected static boolean readAnalysis(IndexFileReader reader) throws IOException
+    {
+        return reader.hasSection("analysis") && reader.read("analysis").get() != 0;
+    }
+    /**
+     * Reads whether the terms of the index in the specified directory are stemmed, without loading it.
+     * @param dir the index directory.
+     * @return {@code true} if the terms are stemmed.
+     * @throws IOException if an error occurs while reading the index file.
+     */
+    public static boolean readStemmed(File dir) throws IOException
+    {
+        IndexFileReader reader = new IndexFileReader(new File(dir, INDEX_FILE));
+        try {
+            return readAnalysis(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks whether the specified document has been {@link #delete deleted}. Retrieval models must skip deleted
+     * documents, which stay in the postings until the index is rebuilt or their segment is merged.
+     * @param docID the ID of the document.
+     * @return {@code true} if the document is deleted.
+     */
+    public boolean isDeleted(int docID)
+    {
+        return this.deleted != null && this.deleted.get(docID);
+    }
+    /**
+     * Deletes all documents with the specified name, and saves the deletion at once.
+     * <p>
+     * Documents are only marked as deleted, so the cost does not depend on the size of the index. The postings and
+     * statistics of the documents are purged when a segment is merged or the index is rebuilt.
+     * <p>
+     * The deletion holds the {@link IndexLock} of the index directory, so it is serialised with the deletions, commits
+     * and merges of other threads and processes, and the documents they deleted since the index was loaded are
+     * {@link #reloadDeleted reloaded} before it is saved.
+     * @param docName the name of the documents.
+     * @return the number of documents deleted.
+     * @throws IOException if an error occurs while saving the deletion, or if the index changed since it was loaded.
+     */
+    public int delete(String docName) throws IOException
+    {
+        IndexLock lock = IndexLock.lock(this.path);
+        try {
+            if (this.docIDsByName == null) {
+                this.docIDsByName = new HashMap<>();
+                for (int docID = 0; docID < this.documents.size(); docID++) {
+                    String name = this.documents.get(docID).item1;
+                    this.docIDsByName.computeIfAbsent(name, key -> new ArrayList<>()).add(docID);
+                }
+            }
+            this.reloadDeleted();
+            int count = 0;
+            for (int docID : this.docIDsByName.getOrDefault(docName, new ArrayList<>())) {
+                if (!this.isDeleted(docID)) {
+                    this.markDeleted(docID);
+                    count++;
+                }
+            }
+            if (count > 0)
+                this.saveDeleted();
+            return count;
+        } finally {
+            lock.close();
+        }
+    }
+    /**
+     * Marks the documents deleted on disk since the index was loaded, by other instances or processes, as deleted in
+     * memory. It must be called while holding the {@link IndexLock} of the index directory.
+     * @throws IOException if an error occurs while reading the file, or if it does not match the index.
+     */
+    protected void reloadDeleted() throws IOException
+    {
+        BitSet saved = readDeleted(new File(this.path), this.documents.size());
+        for (int docID = saved == null ? -1 : saved.nextSetBit(0); docID >= 0; docID = saved.nextSetBit(docID + 1)) {
+            if (!this.isDeleted(docID))
+                this.markDeleted(docID);
+        }
+    }
+    /**
+     * Marks the specified document as deleted, in memory.
+     * @param docID the ID of the document.
+     */
+    protected void markDeleted(int docID)
+    {
+        if (this.deleted == null)
+            this.deleted = new BitSet(this.documents.size());
+        this.deleted.set(docID);
+    }
+    /**
+     * Saves the deleted documents to disk.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    protected void saveDeleted() throws IOException
+    {
+        writeDeleted(new File(this.path), this.documents.size(), this.deleted);
+    }
+    /**
+     * Reads the deleted documents of the index in the specified directory.
+     * @param dir the index directory.
+     * @param documents the number of documents in the index, which must match the one stored with the deletions.
+     * @return the deleted documents, or {@code null} if there are none.
+     * @throws IOException if an error occurs while reading the file, or if it belongs to an index of another size.
+     */
+    public static BitSet readDeleted(File dir, int documents) throws IOException
+    {
+        File file = new File(dir, DELETED_FILE);
+        if (!file.exists())
+            return null;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int stored = dis.readInt();
+            if (stored != documents)
+                throw new IOException("The deleted documents in " + dir + " are for " + stored
+                        + " documents, but the index has " + documents + ".");
+            long[] words = new long[dis.readInt()];
+            for (int i = 0; i < words.length; i++)
+                words[i] = dis.readLong();
+            return BitSet.valueOf(words);
+        }
+    }
+    /**
+     * Writes the deleted documents of the index in the specified directory, replacing the previous ones atomically.
+     * The file holds the {@code int} number of documents in the index, and the words of the bit set as an
+     * {@code int} count followed by {@code long}s. Callers that change the deletions of an existing index must hold
+     * its {@link IndexLock}; for a segment, the lock of the segmented index.
+     * @param dir the index directory.
+     * @param documents the number of documents in the index.
+     * @param deleted the deleted documents.
+     * @throws IOException if an error occurs while writing the file.
+     */
+    public static void writeDeleted(File dir, int documents, BitSet deleted) throws IOException
+    {
+        File tmp = new File(dir, DELETED_FILE + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            long[] words = deleted.toLongArray();
+            dos.writeInt(documents);
+            dos.writeInt(words.length);
+            for (long word : words)
+                dos.writeLong(word);
+        }
+        Files.move(tmp.toPath(), new File(dir, DELETED_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
      * Loads the index from the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * Indexes are stored in a single versioned {@code index} file (see {@link IndexFileWriter}). Indexes saved in the
+     * older format, one Java-serialised file per structure, are detected and read entirely into memory.
      * @throws Exception if an error occurs while loading the index.
      */
     public void load() throws Exception
+    {
+        this.termIdfs = null;
+        File file = Paths.get(this.path, INDEX_FILE).toFile();
+        if (!file.exists()) {
+            if (!this.isLegacy())
+                throw new IOException("No index found in " + this.path + ".");
+            this.loadLegacy();
+            this.deleted = readDeleted(new File(this.path), this.documents.size());
+            return;
+        }
+
+        IndexFileReader reader = new IndexFileReader(file);
+        try {
+            this.stemmed = readAnalysis(reader);
+            // Vocabulary
+            this.vocabulary = new TermDictionary(this.loadSection(reader, "vocabulary"));
+            // Documents
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(reader.read("documents").array()));
+            int count = dis.readInt();
+            this.documents = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String docName = dis.readUTF();
+                double norm = dis.readDouble();
+                this.documents.add(i, new Tuple<>(docName, norm));
+            }
+            this.deleted = readDeleted(new File(this.path), count);
+            // Inverted
+            this.invertedIndex = this.loadPostings(reader, "inverted");
+            // Direct
+            this.directIndex = reader.hasSection("direct") ? this.loadPostings(reader, "direct") : null;
+        } finally {
+            if (this.loadMode == LoadMode.LAZY)
+                this.openFiles.add(reader::close);
+            else
+                reader.close();
+        }
+    }
+    /**
+     * Reads the specified section of the index file: into a heap buffer, verifying its checksum, in
+     * {@link LoadMode#MEMORY} mode, or as a read-only memory-mapped buffer otherwise.
+     * @param reader the reader of the index file.
+     * @param name the name of the section.
+     * @return the buffer with the contents of the section.
+     * @throws IOException if an error occurs while reading the section.
+     */
+    protected ByteBuffer loadSection(IndexFileReader reader, String name) throws IOException
+    {
+        if (this.loadMode == LoadMode.MEMORY)
+            return reader.read(name);
+        return reader.map(name);
+    }
+    /**
+     * Loads the specified postings section according to the {@link LoadMode} of this index.
+     * @param reader the reader of the index file.
+     * @param name the name of the postings section.
+     * @return the postings index.
+     * @throws IOException if an error occurs while loading the postings.
+     */
+    protected PostingsIndex loadPostings(IndexFileReader reader, String name) throws IOException
+    {
+        if (this.loadMode == LoadMode.LAZY)
+            return new LazyPostingsIndex(reader.channel(), reader.offset(name), reader.length(name), this.postingsCacheBytes);
+
+        MappedPostingsIndex mapped = new MappedPostingsIndex(this.loadSection(reader, name));
+        if (this.loadMode == LoadMode.MAPPED)
+            return mapped;
+
+        PostingsIndex postings = new PostingsIndex(mapped.size());
+        for (int i = 0; i < mapped.size(); i++)
+            postings.add(mapped.get(i));
+        return postings;
+    }
+    /**
+     * Checks whether the index directory holds an index saved in the older format, whose files were written with
+     * an {@link ObjectOutputStream}.
+     * @return {@code true} if the index is in the older format.
+     * @throws IOException if an error occurs while reading the index.
+     */
+    protected boolean isLegacy() throws IOException
+    {
+        File file = Paths.get(this.path, "vocabulary").toFile();
+        if (!file.exists())
+            return false;
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 2 && dis.readShort() == ObjectStreamConstants.STREAM_MAGIC;
+        }
+    }
+    /**
+     * Loads an index saved in the older format entirely into memory.
+     * @throws Exception if an error occurs while loading the index.
+     */
+    protected void loadLegacy() throws Exception
     {
         // Vocabulary
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "vocabulary").toFile()));
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Paths.get(this.path, "vocabulary").toFile())));
         int count = ois.readInt();
-        this.vocabulary = new HashMap<>(count);
+        HashMap<String, Tuple<Integer, Double>> vocabulary = new HashMap<>(count);
         for (int i = 0; i < count; i++) {
             String term = ois.readUTF();
             int termID = ois.readInt();
             double idf = ois.readDouble();
-            this.vocabulary.put(term, new Tuple<>(termID, idf));
+            vocabulary.put(term, new Tuple<>(termID, idf));
         }
+        this.vocabulary = vocabulary;
         ois.close();
         // Documents
-        ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "documents").toFile()));
+        ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Paths.get(this.path, "documents").toFile())));
         count = ois.readInt();
         this.documents = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
@@ -137,85 +687,129 @@ public class Index
         }
         ois.close();
         // Inverted
-        ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "inverted").toFile()));
-        count = ois.readInt();
-        this.invertedIndex = new ArrayList<>(count);
-        for (int i = 0; i < count; i++) {
-            int count2 = ois.readInt();
-            ArrayList<Tuple<Integer, Double>> entry = new ArrayList<>(count2);
-            for (int i2 = 0; i2 < count2; i2++) {
-                int item1 = ois.readInt();
-                double item2 = ois.readDouble();
-                entry.add(i2, new Tuple<>(item1, item2));
-            }
-            this.invertedIndex.add(i, entry);
-        }
-        ois.close();
+        this.invertedIndex = this.loadLegacyPostings("inverted");
         // Direct
-        ois = new ObjectInputStream(new FileInputStream(Paths.get(this.path, "direct").toFile()));
-        count = ois.readInt();
-        this.directIndex = new ArrayList<>(count);
+        this.directIndex = this.loadLegacyPostings("direct");
+    }
+    /**
+     * Loads a postings file saved in the older format.
+     * @param name the name of the postings file.
+     * @return the postings index.
+     * @throws IOException if an error occurs while loading the postings.
+     */
+    protected PostingsIndex loadLegacyPostings(String name) throws IOException
+    {
+        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Paths.get(this.path, name).toFile())));
+        int count = ois.readInt();
+        PostingsIndex postings = new PostingsIndex(count);
         for (int i = 0; i < count; i++) {
             int count2 = ois.readInt();
-            ArrayList<Tuple<Integer, Double>> entry = new ArrayList<>(count2);
+            PostingsList entry = new PostingsList(count2);
             for (int i2 = 0; i2 < count2; i2++) {
-                int item1 = ois.readInt();
-                double item2 = ois.readDouble();
-                entry.add(i2, new Tuple<>(item1, item2));
+                int id = ois.readInt();
+                double weight = ois.readDouble();
+                entry.add(id, weight);
             }
-            this.directIndex.add(i, entry);
+            postings.add(entry);
         }
         ois.close();
+        return postings;
+    }
+    /**
+     * Releases the files kept open by a loaded index.
+     * @throws IOException if an error occurs while closing the files.
+     */
+    public void close() throws IOException
+    {
+        for (Closeable file : this.openFiles)
+            file.close();
+        this.openFiles.clear();
     }
     /**
      * Saves the index to the path specified in the {@link Index#Index constructor}.
+     * <p>
+     * The index is written to a temporary file that then replaces the {@code index} file, so readers never see a
+     * partially written index. The cached documents and the deleted documents are written before it is replaced, and
+     * the temporary file is deleted if saving fails.
      * @throws IOException if an error occurs while saving the index.
      */
     public void save() throws IOException
     {
+        this.save(null);
+    }
+    /**
+     * Saves the index like {@link #save()}, recording how long each part takes in the {@code save.*} stages.
+     * @param stats the statistics to record to, or {@code null}.
+     * @throws IOException if an error occurs while saving the index.
+     */
+    public void save(IndexingStats stats) throws IOException
+    {
+        long start = System.nanoTime();
         File di = new File(this.path);
         if (!di.exists())
             di.mkdir();
 
-        // Vocabulary
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "vocabulary").toFile()));
-        oos.writeInt(this.vocabulary.size());
-        for (Map.Entry<String, Tuple<Integer, Double>> entry : this.vocabulary.entrySet()) {
-            oos.writeUTF(entry.getKey());
-            oos.writeInt(entry.getValue().item1);
-            oos.writeDouble(entry.getValue().item2);
-        }
-        oos.close();
-        // Documents
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "documents").toFile()));
-        oos.writeInt(this.documents.size());
-        for (Tuple<String, Double> entry : this.documents) {
-            oos.writeUTF(entry.item1);
-            oos.writeDouble(entry.item2);
-        }
-        oos.close();
-        // Inverted
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "inverted").toFile()));
-        oos.writeInt(this.invertedIndex.size());
-        for (ArrayList<Tuple<Integer, Double>> entry : this.invertedIndex) {
-            oos.writeInt(entry.size());
-            for (Tuple<Integer, Double> entry2 : entry) {
-                oos.writeInt(entry2.item1);
-                oos.writeDouble(entry2.item2);
+        File tmp = Paths.get(this.path, INDEX_FILE + ".tmp").toFile();
+        IndexFileWriter writer = new IndexFileWriter(tmp);
+        boolean committed = false;
+        try {
+            writeAnalysis(writer, this.stemmed);
+            // Vocabulary
+            TermDictionary.write(this.vocabulary, writer.beginSection("vocabulary"));
+            start = IndexingStats.record(stats, "save.vocabulary", start);
+            // Documents
+            DataOutputStream dos = writer.beginSection("documents");
+            dos.writeInt(this.documents.size());
+            for (Tuple<String, Double> entry : this.documents) {
+                dos.writeUTF(entry.item1);
+                dos.writeDouble(entry.item2);
             }
-        }
-        oos.close();
-        // Direct
-        oos = new ObjectOutputStream(new FileOutputStream(Paths.get(this.path, "direct").toFile()));
-        oos.writeInt(this.directIndex.size());
-        for (ArrayList<Tuple<Integer, Double>> entry : this.directIndex) {
-            oos.writeInt(entry.size());
-            for (Tuple<Integer, Double> entry2 : entry) {
-                oos.writeInt(entry2.item1);
-                oos.writeDouble(entry2.item2);
+            start = IndexingStats.record(stats, "save.documents", start);
+            // Inverted
+            this.invertedIndex.write(writer.beginSection("inverted"));
+            start = IndexingStats.record(stats, "save.inverted", start);
+            // Direct
+            if (this.directIndex != null) {
+                this.directIndex.write(writer.beginSection("direct"));
+                start = IndexingStats.record(stats, "save.direct", start);
             }
+            writer.close();
+
+            // Cached documents and deletions go first, so a committed index file never refers to documents missing
+            // from them
+            if (this.documentStore != null)
+                this.documentStore.flush();
+            start = IndexingStats.record(stats, "save.cache", start);
+            if (this.deleted != null)
+                this.saveDeleted();
+            else
+                Files.deleteIfExists(Paths.get(this.path, DELETED_FILE));
+            Files.move(tmp.toPath(), Paths.get(this.path, INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            IndexingStats.record(stats, "save.commit", start);
+        } finally {
+            if (!committed)
+                writer.abort();
+        }
+    }
+    /**
+     * Returns the size of a structure of the index: a section of the index file or, for older indexes, a separate
+     * file.
+     * @param reader the reader of the index file, or {@code null} if there is none.
+     * @param name the name of the structure.
+     * @return the size of the structure in bytes, or {@code -1} if it does not exist.
+     */
+    protected long fileSize(IndexFileReader reader, String name)
+    {
+        try {
+            if (reader != null)
+                return reader.hasSection(name) ? reader.length(name) : -1;
+        } catch (IOException ex) {
+            return -1;
         }
-        oos.close();
+        File file = Paths.get(this.path, name).toFile();
+        return file.exists() ? file.length() : -1;
     }
     /**
      * Prints statistics about the index to {@link System#err}.
@@ -226,27 +820,48 @@ public class Index
     {
         DecimalFormat df = new DecimalFormat("#.##");
 
+        File indexFile = Paths.get(this.path, INDEX_FILE).toFile();
+        IndexFileReader reader = null;
+        try {
+            if (indexFile.exists())
+                reader = new IndexFileReader(indexFile);
+        } catch (IOException ex) {
+            System.err.println("  - Invalid index file: " + ex.getMessage());
+        }
+
         System.err.print("  - Vocabulary: " + this.vocabulary.size() + " terms");
-        File file = Paths.get(this.path, "vocabulary").toFile();
-        if (file.exists())
-            System.err.print(" (" + df.format(file.length() / 1024d / 1024d) + " MB)");
+        long size = this.fileSize(reader, "vocabulary");
+        if (size >= 0)
+            System.err.print(" (" + df.format(size / 1024d / 1024d) + " MB)");
         System.err.println(".");
 
         System.err.print("  - Documents: " + this.documents.size() + " documents");
-        file = Paths.get(this.path, "documents").toFile();
-        if (file.exists())
-            System.err.print(" (" + df.format(file.length() / 1024d) + " KB)");
+        size = this.fileSize(reader, "documents");
+        if (size >= 0)
+            System.err.print(" (" + df.format(size / 1024d) + " KB)");
         System.err.println(".");
 
-        file = Paths.get(this.path, "inverted").toFile();
-        if (file.exists())
-            System.err.println("  - Inverted: " + df.format(file.length() / 1024d / 1024d) + " MB.");
+        if (this.deleted != null)
+            System.err.println("  - Deleted: " + this.deleted.cardinality() + " documents.");
+        System.err.println("  - Stemming: " + (this.stemmed ? "yes" : "no") + ".");
+
+        size = this.fileSize(reader, "inverted");
+        if (size >= 0)
+            System.err.println("  - Inverted: " + df.format(size / 1024d / 1024d) + " MB.");
 
-        file = Paths.get(this.path, "direct").toFile();
-        if (file.exists())
-            System.err.println("  - Direct: " + df.format(file.length() / 1024d / 1024d) + " MB.");
+        size = this.fileSize(reader, "direct");
+        if (size >= 0)
+            System.err.println("  - Direct: " + df.format(size / 1024d / 1024d) + " MB.");
+
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                // Nothing else was read
+            }
+        }
 
-        long cacheSize = 0;
+        long cacheSize = new DocumentStore(new File(this.path)).sizeOnDisk();
         for(int block = 0; block < this.DOCS_PER_CACHE_BLOCK; block++){
             File blockPath = Paths.get(this.path, "cache"+block).toFile();
             if(blockPath.exists())
@@ -0,0 +1,192 @@
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * This class reads an index file written by {@link IndexFileWriter}.
+ * <p>
+ * Opening the file checks the magic number, the format version and the CRC32C of the section table. The contents of
+ * each section can then be {@link #map mapped} or {@link #read read} into the heap; only the latter verifies the
+ * section checksum, since it has to touch every byte anyway. Use {@link #verify} to check a mapped section.
+ */
+public class IndexFileReader
+{
+    protected final File file;
+    protected final FileChannel channel;
+    protected final LinkedHashMap<String, long[]> sections; // [name] -> (offset, length, crc)
+
+    /**
+     * Opens an index file.
+     *
+     * @param file the path of the index file.
+     * @throws IOException if an error occurs while reading the file, or it is not a valid index file.
+     */
+    public IndexFileReader(File file) throws IOException
+    {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.sections = new LinkedHashMap<>();
+        try {
+            ByteBuffer header = this.readRegion(0, IndexFileWriter.HEADER_BYTES);
+            if (header.getInt() != IndexFileWriter.MAGIC)
+                throw new IOException(file + " is not an index file.");
+            int version = header.getInt();
+            if (version != IndexFileWriter.VERSION)
+                throw new IOException("Unsupported version " + version + " of index file " + file + ".");
+            long tableOffset = header.getLong();
+
+            ByteBuffer table = this.readRegion(tableOffset, (int) (this.channel.size() - tableOffset));
+            CRC32C crc = new CRC32C();
+            crc.update(table.array(), 0, table.limit() - 4);
+            if ((int) crc.getValue() != table.getInt(table.limit() - 4))
+                throw new IOException("Corrupted section table in index file " + file + ".");
+
+            int count = table.getInt();
+            for (int i = 0; i < count; i++) {
+                int nameLength = table.getShort() & 0xFFFF;
+                String name = new String(table.array(), table.position(), nameLength, StandardCharsets.UTF_8);
+                table.position(table.position() + nameLength);
+                this.sections.put(name, new long[]{table.getLong(), table.getLong(), table.getInt()});
+            }
+        } catch (IOException | RuntimeException ex) {
+            this.channel.close();
+            throw ex instanceof IOException ? (IOException) ex : new IOException("Corrupted index file " + file + ".", ex);
+        }
+    }
+
+    /**
+     * Checks whether the file has the specified section.
+     *
+     * @param name the name of the section.
+     * @return {@code true} if the section exists.
+     */
+    public boolean hasSection(String name)
+    {
+        return this.sections.containsKey(name);
+    }
+
+    /**
+     * Returns the offset of the specified section in the file.
+     *
+     * @param name the name of the section.
+     * @return the offset of the section.
+     * @throws IOException if the section does not exist.
+     */
+    public long offset(String name) throws IOException
+    {
+        return this.section(name)[0];
+    }
+
+    /**
+     * Returns the length of the specified section.
+     *
+     * @param name the name of the section.
+     * @return the length of the section in bytes.
+     * @throws IOException if the section does not exist.
+     */
+    public long length(String name) throws IOException
+    {
+        return this.section(name)[1];
+    }
+
+    /**
+     * Returns the channel of the index file, to read sections with positioned reads. It is closed by {@link #close}.
+     *
+     * @return the channel of the index file.
+     */
+    public FileChannel channel()
+    {
+        return this.channel;
+    }
+
+    /**
+     * Memory-maps the specified section. The mapping stays valid after the reader is closed.
+     *
+     * @param name the name of the section.
+     * @return a read-only buffer with the section contents between position {@code 0} and its limit.
+     * @throws IOException if an error occurs while mapping the section.
+     */
+    public ByteBuffer map(String name) throws IOException
+    {
+        long[] section = this.mappableSection(name);
+        return this.channel.map(FileChannel.MapMode.READ_ONLY, section[0], section[1]);
+    }
+
+    /**
+     * Reads the specified section into the heap and verifies its checksum.
+     *
+     * @param name the name of the section.
+     * @return a heap buffer with the section contents.
+     * @throws IOException if an error occurs while reading the section, or its checksum does not match.
+     */
+    public ByteBuffer read(String name) throws IOException
+    {
+        long[] section = this.mappableSection(name);
+        ByteBuffer buf = this.readRegion(section[0], (int) section[1]);
+        this.check(name, buf);
+        return buf;
+    }
+
+    /**
+     * Verifies the checksum of the specified section.
+     *
+     * @param name the name of the section.
+     * @throws IOException if an error occurs while reading the section, or its checksum does not match.
+     */
+    public void verify(String name) throws IOException
+    {
+        this.check(name, this.map(name));
+    }
+
+    /**
+     * Closes the index file.
+     *
+     * @throws IOException if an error occurs while closing the file.
+     */
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+
+    protected long[] section(String name) throws IOException
+    {
+        long[] section = this.sections.get(name);
+        if (section == null)
+            throw new IOException("Missing section " + name + " in index file " + this.file + ".");
+        return section;
+    }
+
+    protected long[] mappableSection(String name) throws IOException
+    {
+        long[] section = this.section(name);
+        if (section[1] > IndexFileWriter.MAX_SECTION_BYTES)
+            throw new IOException("Section " + name + " of index file " + this.file + " is too long to be read.");
+        return section;
+    }
+
+    protected void check(String name, ByteBuffer buf) throws IOException
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(buf.duplicate());
+        if ((int) crc.getValue() != (int) this.section(name)[2])
+            throw new IOException("Checksum mismatch in section " + name + " of index file " + this.file + ".");
+    }
+
+    protected ByteBuffer readRegion(long position, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (this.channel.read(buf, position + buf.position()) < 0)
+                throw new IOException("Unexpected end of index file " + this.file + ".");
+        }
+        buf.flip();
+        return buf;
+    }
+}
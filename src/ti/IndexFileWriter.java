@@ -0,0 +1,203 @@
+package ti;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * This class writes a versioned, sectioned index file in a single streaming pass.
+ * <p>
+ * The file starts with a fixed header: the {@link #MAGIC} number, the format {@link #VERSION} and the {@code long}
+ * offset of the section table. Then come the sections, one after the other, and finally the section table: the
+ * {@code int} number of sections, and for each one its name (as written by {@link DataOutputStream#writeUTF}), its
+ * {@code long} offset and length, and the {@code int} CRC32C of its contents. The table ends with the {@code int}
+ * CRC32C of the table itself.
+ * <p>
+ * All data goes through a large buffer, and the header is completed once the table has been written. Sections may
+ * not be longer than {@link #MAX_SECTION_BYTES}.
+ * Use {@link IndexFileReader} to read the file back.
+ */
+public class IndexFileWriter
+{
+    /**
+     * The magic number at the start of every index file ({@code "TIDX"}).
+     */
+    public static final int MAGIC = 0x54494458;
+    /**
+     * The current version of the index file format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The size of the fixed header at the start of the file.
+     */
+    public static final int HEADER_BYTES = 16;
+    /**
+     * The maximum length of a section. Readers map each section as a single buffer and address it with {@code int}
+     * offsets, so longer sections cannot be read back.
+     */
+    public static final long MAX_SECTION_BYTES = Integer.MAX_VALUE;
+
+    protected static final int BUFFER_BYTES = 1024 * 1024;
+
+    protected final File file;
+    protected final FileChannel channel;
+    protected final CrcOutputStream crcOut;
+    protected final DataOutputStream out;
+    protected final ArrayList<Section> sections;
+    protected Section current;
+
+    /**
+     * Creates a new index file, replacing any existing one.
+     *
+     * @param file the path of the index file.
+     * @throws IOException if an error occurs while creating the file.
+     */
+    public IndexFileWriter(File file) throws IOException
+    {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.channel.position(HEADER_BYTES);
+        this.crcOut = new CrcOutputStream(Channels.newOutputStream(this.channel), HEADER_BYTES);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.crcOut, BUFFER_BYTES));
+        this.sections = new ArrayList<>();
+    }
+
+    /**
+     * Starts a new section, ending the current one if any.
+     *
+     * @param name the name of the section.
+     * @return the stream to write the section contents to. It must not be closed.
+     * @throws IOException if an error occurs while writing.
+     */
+    public DataOutputStream beginSection(String name) throws IOException
+    {
+        this.endSection();
+        this.current = new Section(name, this.crcOut.position);
+        this.crcOut.crc.reset();
+        return this.out;
+    }
+
+    /**
+     * Ends the current section, if any.
+     *
+     * @throws IOException if an error occurs while writing, or the section is longer than {@link #MAX_SECTION_BYTES}.
+     *                     The file is closed and left incomplete in the latter case.
+     */
+    public void endSection() throws IOException
+    {
+        if (this.current == null)
+            return;
+        this.out.flush();
+        this.current.length = this.crcOut.position - this.current.offset;
+        if (this.current.length > MAX_SECTION_BYTES) {
+            this.channel.close();
+            throw new IOException("Section " + this.current.name + " of the index file is " + this.current.length
+                    + " bytes long, over the limit of " + MAX_SECTION_BYTES + " bytes.");
+        }
+        this.current.crc = (int) this.crcOut.crc.getValue();
+        this.sections.add(this.current);
+        this.current = null;
+    }
+
+    /**
+     * Ends the current section, writes the section table and the header, and closes the file.
+     *
+     * @throws IOException if an error occurs while writing.
+     */
+    public void close() throws IOException
+    {
+        this.endSection();
+        long tableOffset = this.crcOut.position;
+        this.crcOut.crc.reset();
+        this.out.writeInt(this.sections.size());
+        for (Section section : this.sections) {
+            this.out.writeUTF(section.name);
+            this.out.writeLong(section.offset);
+            this.out.writeLong(section.length);
+            this.out.writeInt(section.crc);
+        }
+        this.out.flush();
+        this.out.writeInt((int) this.crcOut.crc.getValue());
+        this.out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(tableOffset).flip();
+        while (header.hasRemaining())
+            this.channel.write(header, header.position());
+        this.channel.force(true);
+        this.channel.close();
+    }
+
+    /**
+     * Closes the file without completing it and deletes it, after an error while writing it. Errors while closing or
+     * deleting the file are ignored, so that they do not hide the one that caused the abort.
+     */
+    public void abort()
+    {
+        try {
+            this.channel.close();
+            Files.deleteIfExists(this.file.toPath());
+        } catch (IOException ex) {
+            // the original error is the one to report
+        }
+    }
+
+    /**
+     * An entry of the section table.
+     */
+    protected static class Section
+    {
+        protected final String name;
+        protected final long offset;
+        protected long length;
+        protected int crc;
+
+        protected Section(String name, long offset)
+        {
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A stream that tracks the position in the file and the CRC32C of the bytes written through it.
+     */
+    protected static class CrcOutputStream extends FilterOutputStream
+    {
+        protected final CRC32C crc = new CRC32C();
+        protected long position;
+
+        protected CrcOutputStream(OutputStream out, long position)
+        {
+            super(out);
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            this.out.write(b);
+            this.crc.update(b);
+            this.position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            this.out.write(b, off, len);
+            this.crc.update(b, off, len);
+            this.position += len;
+        }
+    }
+}
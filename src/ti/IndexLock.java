@@ -0,0 +1,114 @@
+package ti;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is the exclusive write lock of an index directory, which serialises the changes to its commit and
+ * deletion files, like committing a segment, merging segments or deleting documents.
+ * <p>
+ * The lock is held with {@link FileChannel#lock} on the {@link #LOCK_FILE} in the index directory, so it also excludes
+ * other processes. File locks are held by the whole JVM, so threads of the same process are serialised first with a
+ * {@link ReentrantLock} shared by every user of the directory, and only the outermost acquisition of a thread takes
+ * the file lock. The lock is reentrant, so locked operations can call each other.
+ * <pre>
+ * IndexLock lock = IndexLock.lock(path);
+ * try {
+ *     ...
+ * } finally {
+ *     lock.close();
+ * }
+ * </pre>
+ */
+public class IndexLock implements Closeable
+{
+    /**
+     * The name of the lock file in the index directory.
+     */
+    public static final String LOCK_FILE = "write.lock";
+
+    protected static final ConcurrentHashMap<String, IndexLock> LOCKS = new ConcurrentHashMap<>();
+
+    protected final File file;
+    protected final ReentrantLock lock;
+    protected FileChannel channel;
+    protected FileLock fileLock;
+
+    protected IndexLock(File file)
+    {
+        this.file = file;
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Acquires the write lock of the specified index directory, waiting until no other thread or process holds it.
+     * It must be released with {@link #close} by the same thread.
+     *
+     * @param path the index directory, which must exist.
+     * @return the lock.
+     * @throws IOException if an error occurs while locking the lock file.
+     */
+    public static IndexLock lock(String path) throws IOException
+    {
+        String dir = new File(path).getCanonicalPath();
+        IndexLock lock = LOCKS.computeIfAbsent(dir, key -> new IndexLock(new File(key, LOCK_FILE)));
+        lock.acquire();
+        return lock;
+    }
+
+    /**
+     * Acquires the lock for the current thread, and the file lock if the thread did not hold it yet.
+     *
+     * @throws IOException if an error occurs while locking the lock file.
+     */
+    protected void acquire() throws IOException
+    {
+        this.lock.lock();
+        if (this.lock.getHoldCount() > 1)
+            return;
+        try {
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.fileLock = this.channel.lock();
+        } catch (IOException | RuntimeException ex) {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException closeException) {
+                    ex.addSuppressed(closeException);
+                }
+            }
+            this.channel = null;
+            this.lock.unlock();
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases the lock once for the current thread, and the file lock with the outermost release.
+     *
+     * @throws IOException if an error occurs while unlocking the lock file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            if (this.lock.getHoldCount() == 1) {
+                try {
+                    this.fileLock.release();
+                } finally {
+                    this.channel.close();
+                    this.channel = null;
+                    this.fileLock = null;
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package ti;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
 
 /**
  * This class contains the logic to run the indexing process of the search engine.
@@ -19,6 +26,91 @@ public class Indexer
 	protected File pathToIndex;
 	protected File pathToCollection;
 	protected DocumentProcessor docProcessor;
+	/**
+	 * Whether to build and store the direct index. Without it, the index is smaller and faster to build, and
+	 * {@link Index#forwardVectors} rebuilds document vectors on demand from the document store. It is not built
+	 * either, with a warning, if the index does not fit in memory and is merged from runs (see {@link RunMerger}).
+	 */
+	public boolean buildDirectIndex = true;
+	/**
+	 * Whether to add the documents to the existing index as a new segment (see {@link SegmentedIndex}) instead of
+	 * building the index from scratch.
+	 */
+	public boolean incremental = false;
+	/**
+	 * In incremental mode, the number of segments of similar size that are merged together (see
+	 * {@link TieredMergePolicy}), or {@code 0} to never merge them.
+	 */
+	public int mergeFactor = 10;
+	/**
+	 * The number of background threads that merge segments.
+	 */
+	public int mergeThreads = 2;
+	/**
+	 * The number of threads that process documents in the first pass.
+	 */
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The maximum estimated heap size, in bytes, of the postings kept in memory, or {@code 0} for no limit.
+	 * When it is reached, the postings are spilled to disk in a sorted run, and the runs are finally merged
+	 * into the index (see {@link RunMerger}).
+	 */
+	public long memoryBudget = 0;
+
+	/**
+	 * Whether to print a line for every indexed file.
+	 */
+	public boolean verbose = true;
+	/**
+	 * The file to write the JSON report of the {@link #stats} to, or {@code null} not to write it.
+	 */
+	public File reportFile = null;
+	/**
+	 * Whether to publish the {@link #stats} through JMX while indexing runs.
+	 */
+	public boolean publishJmx = false;
+	/**
+	 * The timers and counters of every stage of the indexer.
+	 */
+	public final IndexingStats stats = new IndexingStats();
+
+	/**
+	 * The number of archives of the collection that are read ahead at the same time (see {@link CollectionSource}).
+	 */
+	public int readAheadThreads = 2;
+
+	/**
+	 * The number of documents between checkpoints of the first pass (see {@link Checkpoint}), or {@code 0} not to
+	 * write checkpoints.
+	 */
+	public int checkpointInterval = 10000;
+	/**
+	 * Whether to resume an interrupted build from its last checkpoint, instead of starting it from scratch. In
+	 * incremental mode, the build resumed is the one of the last uncommitted segment with checkpoints.
+	 */
+	public boolean resume = false;
+
+	protected static final int FILES_PER_CHUNK = 64;
+	protected RunMerger runs;
+	protected long runBytes;
+	protected DocumentStoreWriter cacheWriter;
+	protected Checkpoint checkpoint;
+	protected long position;       // documents of the collection consumed so far
+	protected String lastOrigin;   // origin of the last document consumed, relative to the collection
+	protected long lastCheckpoint; // position of the last checkpoint
+	protected final ThreadLocal<DocumentReader> readers = ThreadLocal.withInitial(DocumentReader::new);
+	protected final ThreadLocal<TermIdCounter> counters = ThreadLocal.withInitial(TermIdCounter::new);
+	protected final IndexingStats.Stage readStage = this.stats.stage("document.read");
+	protected final IndexingStats.Stage parseStage = this.stats.stage("document.parse");
+	protected final IndexingStats.Stage tokenizeStage = this.stats.stage("document.tokenize");
+	protected final IndexingStats.Stage addStage = this.stats.stage("document.add");
+	protected final IndexingStats.Stage documentStage = this.stats.stage("document");
+	protected final LongAdder documentsCounter = this.stats.counter("documents");
+	protected final LongAdder failuresCounter = this.stats.counter("failures");
+	protected final LongAdder charactersCounter = this.stats.counter("characters");
+	protected final LongAdder tokensCounter = this.stats.counter("tokens");
+	protected final LongAdder postingsCounter = this.stats.counter("postings");
 
 	/**
 	 * Creates a new indexer with the given paths and document processor.
@@ -35,34 +127,224 @@ public class Indexer
 
 	/**
 	 * Run the indexing process in two passes and save the index to disk.
+	 * <p>
+	 * In incremental mode, the index is saved as a new segment and committed together with the existing ones, which
+	 * are then merged if needed.
+	 * <p>
+	 * The timers and counters of each stage are collected in {@link #stats}, and written to {@link #reportFile}
+	 * at the end.
 	 * @throws IOException if an error occurs while indexing.
 	 */
 	public void run() throws IOException
 	{
-		Index ind = new Index(this.pathToIndex.getPath());
+		if (this.publishJmx) {
+			try {
+				this.stats.register();
+			} catch (JMException ex) {
+				System.err.println("Cannot publish indexing statistics through JMX: " + ex.getMessage());
+			}
+		}
+		try {
+			this.index();
+		} finally {
+			if (this.publishJmx) {
+				try {
+					this.stats.unregister();
+				} catch (JMException ex) {
+					// Las estadísticas ya están completas, el índice no se ve afectado
+				}
+			}
+		}
+
+		if (this.reportFile != null) {
+			System.err.print("Writing report to " + this.reportFile + "...");
+			this.stats.writeReport(this.reportFile.toPath());
+			System.err.println("done.");
+		}
+	}
+	/**
+	 * Runs the indexing process itself, as described in {@link #run}.
+	 * @throws IOException if an error occurs while indexing.
+	 */
+	protected void index() throws IOException
+	{
 		File di = new File(this.pathToIndex.getPath());
         if (!di.exists())
             di.mkdir();
+		File pathToSegment = this.pathToIndex;
+		if (this.incremental) {
+			pathToSegment = this.resume ? this.interruptedSegment() : null;
+			if (pathToSegment == null)
+				pathToSegment = SegmentedIndex.newSegment(this.pathToIndex.getPath());
+			this.checkStemming(pathToSegment);
+		}
+		Index ind = new Index(pathToSegment.getPath());
+		ind.stemmed = this.docProcessor.stems();
+		this.runs = this.memoryBudget > 0 ? new RunMerger(pathToSegment) : null;
+		this.runBytes = 0;
+		this.position = 0;
+		this.lastOrigin = null;
+		this.lastCheckpoint = 0;
+		this.checkpoint = new Checkpoint(pathToSegment, this.pathToCollection);
+		if (this.resume) {
+			if (Checkpoint.exists(pathToSegment))
+				this.restore(ind);
+			else
+				System.err.println("No checkpoint found in " + pathToSegment + "; starting from scratch.");
+		} else {
+			// Los checkpoints de un build anterior no valen para este
+			this.checkpoint.delete();
+		}
         
-		this.firstPass(ind);
+		long start = System.nanoTime();
+		this.cacheWriter = new DocumentStoreWriter(ind.getDocumentStore(), DocumentStoreWriter.DEFAULT_CAPACITY, this.stats);
+		try {
+			this.firstPass(ind);
+		} catch (IOException | RuntimeException ex) {
+			try {
+				this.cacheWriter.close();
+			} catch (IOException cacheException) {
+				ex.addSuppressed(cacheException);
+			}
+			throw ex;
+		}
+		// Esperar a que se escriba toda la caché antes de guardar el índice
+		this.cacheWriter.close();
+		start = IndexingStats.record(this.stats, "firstPass", start);
 		//System.out.println("\nFirst pass status:");
 		//ind.printIndex();
 		
-		this.secondPass(ind);
-		//System.out.println("\nSecond pass status:");
-		//ind.printIndex();
-		
-		// Save index
-		System.err.print("Saving index...");
-		ind.save();
-		System.err.println("done.");
+		if (this.runs != null && this.runs.size() > 0) {
+			// El índice no cabe en memoria: mezclar los trozos volcados a disco en lugar de la segunda pasada
+			if (this.buildDirectIndex)
+				System.err.println("Warning: the index does not fit in memory, so the direct index is not built;"
+						+ " raise --memory-mb to build it.");
+			System.err.print("Merging runs into the index...");
+			this.runs.write(ind);
+			ind.close();
+			IndexingStats.record(this.stats, "runs.merge", start);
+			System.err.println("done.");
+			ind = new Index(pathToSegment.getPath());
+			try {
+				ind.load();
+			} catch (Exception ex) {
+				throw new IOException("Cannot read the merged index.", ex);
+			}
+		} else {
+			this.secondPass(ind);
+			start = IndexingStats.record(this.stats, "secondPass", start);
+			//System.out.println("\nSecond pass status:");
+			//ind.printIndex();
+
+			// Save index
+			System.err.print("Saving index...");
+			ind.save(this.stats);
+			IndexingStats.record(this.stats, "save", start);
+			System.err.println("done.");
+		}
+		// El índice ya está completo en disco: los checkpoints ya no hacen falta
+		this.checkpoint.delete();
 		System.err.println("Index statistics:");
 		ind.printStatistics();
+
+		// Commit the new segment
+		if (!this.incremental) {
+			SegmentedIndex.removeSegments(this.pathToIndex.getPath());
+		} else {
+			System.err.print("Committing segment " + pathToSegment.getName() + "...");
+			String name = pathToSegment.getName();
+			SegmentedIndex.update(this.pathToIndex.getPath(), segments -> {
+				segments.add(name);
+				return segments;
+			});
+			System.err.println("done.");
+
+			// Merge segments in the background, and wait for them before exiting
+			if (this.mergeFactor > 1) {
+				System.err.print("Merging segments...");
+				MergeScheduler scheduler = new MergeScheduler(this.pathToIndex.getPath(),
+						new TieredMergePolicy(this.mergeFactor), this.mergeThreads);
+				scheduler.maybeMerge();
+				try {
+					int merges = scheduler.close();
+					System.err.println("done (" + merges + " merges, "
+							+ SegmentedIndex.listSegments(this.pathToIndex.getPath()).size() + " segments).");
+				} catch (InterruptedException ex) {
+					throw new IOException("Interrupted while merging segments.", ex);
+				}
+			}
+		}
 	}
 	
+	/**
+	 * Checks that the committed segments of the index are stemmed like the documents of the new segment will be, since
+	 * queries can only be processed one way. The new segment is deleted if they are not.
+	 * @param pathToSegment the directory of the new segment.
+	 * @throws IOException if the segments are stemmed differently, or cannot be read.
+	 */
+	protected void checkStemming(File pathToSegment) throws IOException
+	{
+		List<String> committed = SegmentedIndex.listSegments(this.pathToIndex.getPath());
+		if (committed.isEmpty()
+				|| Index.readStemmed(new File(this.pathToIndex, committed.get(0))) == this.docProcessor.stems())
+			return;
+		// El segmento nuevo está vacío salvo que se reanude un build, que tampoco podría hacerse commit
+		SegmentedIndex.delete(pathToSegment);
+		throw new IOException("The index in " + this.pathToIndex + " is " + (this.docProcessor.stems() ? "not " : "")
+				+ "stemmed; append to it with the same stemming setting.");
+	}
+	/**
+	 * Returns the last uncommitted segment of the index that has checkpoints of an interrupted build.
+	 * @return the directory of the segment, or {@code null} if there is none.
+	 * @throws IOException if an error occurs while reading the index directory.
+	 */
+	protected File interruptedSegment() throws IOException
+	{
+		List<String> committed = SegmentedIndex.listSegments(this.pathToIndex.getPath());
+		File last = null;
+		int lastNumber = -1;
+		for (File file : this.pathToIndex.listFiles()) {
+			String name = file.getName();
+			if (!file.isDirectory() || !name.matches(SegmentedIndex.SEGMENT_PREFIX + "\\d+") || committed.contains(name)
+					|| !Checkpoint.exists(file))
+				continue;
+			int number = Integer.parseInt(name.substring(SegmentedIndex.SEGMENT_PREFIX.length()));
+			if (number > lastNumber) {
+				last = file;
+				lastNumber = number;
+			}
+		}
+		return last;
+	}
+	/**
+	 * Restores the index, the runs and the document store of an interrupted build at its last checkpoint, so that
+	 * the first pass goes on after the documents it had consumed.
+	 * @param ind the index, still empty.
+	 * @throws IOException if an error occurs while reading the checkpoint.
+	 */
+	protected void restore(Index ind) throws IOException
+	{
+		System.err.print("Resuming from the last checkpoint...");
+		this.checkpoint.restore(ind);
+		if (this.checkpoint.runs > 0 && this.runs == null)
+			throw new IOException("The interrupted build spilled runs to disk; resume it with a memory budget.");
+		if (this.runs != null)
+			this.runs.resume(this.checkpoint.runs);
+		this.runBytes = this.checkpoint.runBytes;
+		ind.getDocumentStore().resume(ind.documents.size(), this.checkpoint.storeLength);
+		this.position = this.checkpoint.position;
+		this.lastOrigin = this.checkpoint.origin;
+		this.lastCheckpoint = this.position;
+		System.err.println("done (" + this.position + " documents).");
+	}
 	/**
 	 * Runs the first pass of the indexer.
-	 * It builds the inverted index by iterating all original document files and calling {@link #processDocument}.
+	 * It builds the inverted index by iterating all original documents and calling {@link #processDocument}.
+	 * Documents come from a {@link CollectionSource}, so the collection may be a directory tree with files and
+	 * archives. They are processed in chunks of {@link #FILES_PER_CHUNK} documents on {@link #threads} threads, each
+	 * into its own {@link PartialIndex}, which are then merged into the index in the order of the collection.
+	 * When resuming, the documents consumed before the last checkpoint are skipped, checking that the last of them is
+	 * still the one recorded in the checkpoint.
 	 * @param ind the index.
 	 * @throws IOException if an error occurs while processing a document.
 	 */
@@ -74,25 +356,43 @@ public class Indexer
 		long totalBytesDocuments = 0;
 
 		System.err.println("Running first pass...");
-		for (File subDir : this.pathToCollection.listFiles()) {
-			if (!subDir.getName().startsWith(".")) {
-				for (File docFile : subDir.listFiles()) {
-					if (docFile.getPath().endsWith(".html")) {
-						try {
-							System.err.print("  Indexing file " + docFile.getName() + "...");
-							this.processDocument(docFile, ind);
-							System.err.print("done.");
-						} catch (IOException ex) {
-							System.err.println("exception!");
-							System.err.print(ex.getMessage());
-						} finally {
-							System.err.println();
-						}
-						totalDocuments++;
-						totalBytesDocuments += docFile.length();
-					}
+
+		// Los trozos se procesan en paralelo y se mezclan en orden, así los IDs no dependen de los hilos
+		ExecutorService executor = this.threads > 1 ? Executors.newFixedThreadPool(this.threads) : null;
+		ArrayDeque<Future<PartialIndex>> pending = new ArrayDeque<>();
+		try (DocumentSource source = new CollectionSource(this.pathToCollection, this.readAheadThreads)) {
+			SourceDocument last = null;
+			for (long skipped = 0; skipped < this.position; skipped++) {
+				if ((last = source.next()) == null)
+					throw new IOException("The collection has fewer documents than the checkpoint.");
+			}
+			// Si la colección ha cambiado, los documentos siguientes no serían los que faltan
+			if (last != null && !this.originOf(last).equals(this.lastOrigin))
+				throw new IOException("The collection changed since the checkpoint: document " + this.position + " is "
+						+ this.originOf(last) + " instead of " + this.lastOrigin + ".");
+			while (true) {
+				ArrayList<SourceDocument> chunk = new ArrayList<>(FILES_PER_CHUNK);
+				SourceDocument document;
+				while (chunk.size() < FILES_PER_CHUNK && (document = source.next()) != null) {
+					chunk.add(document);
+					totalDocuments++;
+					totalBytesDocuments += document.length();
 				}
+				if (chunk.isEmpty())
+					break;
+				if (executor == null) {
+					this.addChunk(this.processChunk(chunk), ind);
+					continue;
+				}
+				pending.add(executor.submit(() -> this.processChunk(chunk)));
+				if (pending.size() >= 2 * this.threads)
+					this.mergeChunk(pending.poll(), ind);
 			}
+			while (!pending.isEmpty())
+				this.mergeChunk(pending.poll(), ind);
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
 		}
 
 		long endTime = System.currentTimeMillis();
@@ -103,10 +403,110 @@ public class Indexer
 		System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
 		System.err.println("  - Throughput: " + df.format(totalMegabytes / totalTime) + " MB/s.");
 	}
+	/**
+	 * Processes a chunk of documents into a new partial index.
+	 * @param chunk the original documents.
+	 * @return the partial index with the documents.
+	 */
+	protected PartialIndex processChunk(List<SourceDocument> chunk)
+	{
+		PartialIndex partial = new PartialIndex();
+		for (SourceDocument document : chunk) {
+			String fileName = new File(document.origin).getName();
+			try {
+				this.processDocument(document, partial);
+				if (this.verbose)
+					System.err.println("  Indexing file " + fileName + "...done.");
+			} catch (IOException ex) {
+				this.failuresCounter.increment();
+				partial.skip();
+				System.err.println("  Indexing file " + fileName + "...exception!");
+				System.err.println(ex.getMessage());
+			}
+		}
+		partial.consumed(this.originOf(chunk.get(chunk.size() - 1)));
+		return partial;
+	}
+	/**
+	 * Returns where a document comes from relative to the collection, so that the checkpoints do not depend on how
+	 * the path to the collection was given.
+	 * @param document the document.
+	 * @return the origin of the document.
+	 */
+	protected String originOf(SourceDocument document)
+	{
+		String root = this.pathToCollection.getPath();
+		return document.origin.startsWith(root) ? document.origin.substring(root.length()) : document.origin;
+	}
+	/**
+	 * Merges a processed chunk into the index, spills the postings to a run if they exceed the
+	 * {@link #memoryBudget}, and writes a checkpoint after a spill or every {@link #checkpointInterval} documents.
+	 * @param partial the partial index of the chunk.
+	 * @param ind the index.
+	 * @throws IOException if an error occurs while merging the chunk.
+	 */
+	protected void addChunk(PartialIndex partial, Index ind) throws IOException
+	{
+		long start = System.nanoTime();
+		// La caché se escribe en su propio hilo; aquí solo se espera si su cola está llena
+		int docBase = partial.mergeDocuments(ind);
+		this.cacheWriter.write(docBase, partial.documentTexts());
+		start = IndexingStats.record(this.stats, "chunk.cache", start);
+		partial.mergePostings(ind, docBase);
+		start = IndexingStats.record(this.stats, "chunk.postings", start);
+		boolean spilled = false;
+		if (this.runs != null) {
+			this.runBytes += partial.estimatedBytes();
+			if (this.runBytes >= this.memoryBudget) {
+				this.runs.spill(ind);
+				this.runBytes = 0;
+				spilled = true;
+				start = IndexingStats.record(this.stats, "spill", start);
+			}
+		}
+		this.position += partial.chunkSize();
+		this.lastOrigin = partial.lastOrigin();
+		// Los checkpoints solo dependen de la posición, así un build reanudado los escribe en los mismos puntos
+		if (this.checkpointInterval > 0 && (spilled || this.position - this.lastCheckpoint >= this.checkpointInterval))
+			this.writeCheckpoint(ind, start);
+	}
+	/**
+	 * Writes a checkpoint of the first pass, once the cached documents merged so far are in the document store.
+	 * @param ind the index.
+	 * @param start the start time of the checkpoint, from {@link System#nanoTime}.
+	 * @throws IOException if an error occurs while writing the checkpoint.
+	 */
+	protected void writeCheckpoint(Index ind, long start) throws IOException
+	{
+		this.cacheWriter.sync();
+		DocumentStore store = ind.getDocumentStore();
+		store.flush();
+		this.checkpoint.write(ind, this.position, this.lastOrigin, this.runs == null ? 0 : this.runs.size(),
+				this.runBytes, store.dataLength());
+		this.lastCheckpoint = this.position;
+		IndexingStats.record(this.stats, "checkpoint", start);
+	}
+	/**
+	 * Waits for a chunk processed in the background and merges it into the index.
+	 * @param chunk the pending partial index of the chunk.
+	 * @param ind the index.
+	 * @throws IOException if an error occurs while merging the chunk.
+	 */
+	protected void mergeChunk(Future<PartialIndex> chunk, Index ind) throws IOException
+	{
+		try {
+			this.addChunk(chunk.get(), ind);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing.", ex);
+		} catch (ExecutionException ex) {
+			throw new IOException("Error while indexing.", ex.getCause());
+		}
+	}
 	/**
 	 * Runs the second pass of the indexer.
 	 * Here it traverses the inverted index to compute and store IDF, update weights in the postings,
-	 * build the direct index, and compute document norms.
+	 * build the direct index, and compute document norms, on {@link #threads} threads (see {@link SecondPass}).
 	 * @param ind the index.
 	 */
 	protected void secondPass(Index ind)
@@ -115,51 +515,21 @@ public class Indexer
 		long startTime = System.currentTimeMillis();
 
 		System.err.println("Running second pass...");
-		System.err.print("  Updating term weights and direct index...");
+		System.err.print("  Updating term weights, document norms and direct index...");
 
-		// P2
-		// recorrer el índice para calcular IDF y actualizar pesos
-		/*
-		 * Iteramos sobre los términos del índice y miramos los documentos que lo
-		 * contienen. Para cada documentos calculamos su IDF y lo multiplicamos
-		 * por el TF calculado en la primera pasada.
-		 *
-		 * A parte, vamos sumando el cuadrado del peso que hemos calculado en el
-		 * item2 del documento para luego hacer la norma.
-		 */
-		Double nd = (double) ind.documents.size();
-		for(String term : ind.vocabulary.keySet()){
-			Tuple<Integer,Double> t = ind.vocabulary.get(term);
-			Double ct = (double) ind.invertedIndex.get(t.item1).size();
-			Double idf = Math.log(1.0 + (nd/ct));
-			t.item2 = idf;
-			for(Tuple<Integer, Double> d : ind.invertedIndex.get(t.item1)){
-				d.item2 *= idf;
-				ind.documents.get(d.item1).item2 += Math.pow(d.item2,2);
-			}
-		}
-
-		// P4
-		// actualizar directIndex
-		// Traverse all terms to compute IDF, direct postings, and norm summations
-		
-		for(int i=0; i<ind.invertedIndex.size(); i++){
-			for(Tuple<Integer, Double> posting : ind.invertedIndex.get(i)){
-				ind.directIndex.get(posting.item1).add(new Tuple<>(i,posting.item2));
-			}
-		}
-		
-		System.err.println("done.");
-		System.err.print("  Updating document norms...");
-
-		// P2
-		// actualizar normas de documentos
+		// P2, P4
+		// recorrer el índice para calcular IDF, actualizar pesos, normas de documentos y directIndex
 		/*
-		 * Iteramos sobre los documentos y hacemos la raíz cuadrada de los
-		 * sumatorios de pesos calculados antes.
+		 * Los términos se reparten en franjas, una por hilo, y cada franja
+		 * multiplica los pesos de sus postings por el IDF y suma sus cuadrados
+		 * en sus propias normas parciales, que luego se suman por documento.
+		 * Ver SecondPass.
 		 */
-		for(Tuple<String, Double> d : ind.documents){
-			d.item2 = Math.sqrt(d.item2);
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, this.threads));
+		try {
+			new SecondPass(ind, this.buildDirectIndex, this.threads).run(pool, this.stats);
+		} finally {
+			pool.shutdown();
 		}
 
 		long endTime = System.currentTimeMillis();
@@ -169,82 +539,52 @@ public class Indexer
 		System.err.println("  - Time: " + df.format(totalTime) + " seconds.");
 	}
 	/**
-	 * Process the original document in the specified path and add it to the given index.
+	 * Process the specified original document and add it to the given partial index.
 	 * <p>
-	 * After extracting the document terms, it populates the vocabulary and document structures,
-	 * and adds the corresponding postings to the inverted index.
-	 * @param docFile the path to the original document file.
-	 * @param ind the index to add the document to.
+	 * After extracting the document terms, it adds the document, its terms and their weights to the partial index,
+	 * which is later merged into the index.
+	 * @param docFile the original document, a file or an entry of an archive.
+	 * @param partial the partial index to add the document to.
 	 * @throws IOException if an error occurrs while processing this document.
 	 */
-	protected void processDocument(File docFile, Index ind) throws IOException
+	protected void processDocument(SourceDocument docFile, PartialIndex partial) throws IOException
 	{
 		// P2
-		// leer documento desde disc
-		FileReader r = new FileReader(docFile.getPath());
-		BufferedReader b = new BufferedReader(r);
-		String text = "";
-		String line;
-		while((line = b.readLine()) != null){
-			text += " " + line;
-		}
-		b.close();
-		r.close();
+		// leer documento desde disco (o desde el archivo comprimido), en buffers que se reutilizan entre documentos del mismo hilo
+		long begin = System.nanoTime();
+		String text = docFile.text(this.readers.get());
+		long start = this.readStage.lap(begin);
 		
 		//procesarlo para obtener los términos
 		Tuple<String, String> document = docProcessor.parse(text);
-		ArrayList<String> title = docProcessor.processText(document.item1);
-		ArrayList<String> body = docProcessor.processText(document.item2);
+		start = this.parseStage.lap(start);
 		
-		ArrayList<Tuple<String, Double>> vector = new ArrayList<>();
+		// calcular pesos: cada término se convierte en su termID del vocabulario del índice parcial a medida que sale
+		// del tokenizador, y se cuenta por termID, sin crear listas ni cadenas salvo para los términos nuevos
+		TermIdTable vocabulary = partial.vocabulary();
+		TermIdCounter counter = this.counters.get();
+		counter.clear();
+		int[] tokens = new int[1];
+		docProcessor.processText(document.item1, (chars, length) -> {
+			counter.add(vocabulary.intern(chars, length), 2);
+			tokens[0]++;
+		});
+		docProcessor.processText(document.item2, (chars, length) -> {
+			counter.add(vocabulary.intern(chars, length), 1);
+			tokens[0]++;
+		});
+		start = this.tokenizeStage.lap(start);
 		
-		// calcular pesos
-		for (String s: title){
-			int pos = -1;
-			for(int i=0; i<vector.size(); i++){
-				if(vector.get(i).item1.equals(s)){
-					pos = i;
-					break;
-				}
-			}
-			if (pos < 0){
-				vector.add(new Tuple<>(s, 2.0));
-			} else{
-				vector.get(pos).item2 += 2;
-			}
-		}
-		
-		for (String s: body){
-			int pos = -1;
-			for(int i=0; i<vector.size(); i++){
-				if(vector.get(i).item1.equals(s)){
-					pos = i;
-					break;
-				}
-			}
-			if (pos < 0){
-				vector.add(new Tuple<>(s, 1.0));
-			} else{
-				vector.get(pos).item2++;
-			}
-		}
-		
-		// actualizar estructuras del índice: vocabulary, documents e invertedIndex
-		String namedoc = docFile.getName();
-		String[] namedocsplit = namedoc.split("\\.");
-		namedoc = namedocsplit[0];
-
-		ind.documents.add(new Tuple<>(namedoc,0.0));
-		ind.directIndex.add(new ArrayList<>());
-		int docId = ind.documents.size() - 1;
-		ind.setCachedDocument(docId, new Tuple<>(document.item1, document.item2));
-		for(int i=0; i<vector.size(); i++){
-			if (!ind.vocabulary.containsKey(vector.get(i).item1)) {
-				ind.invertedIndex.add(new ArrayList<>());
-				ind.vocabulary.put(vector.get(i).item1,new Tuple<>(ind.invertedIndex.size() - 1, 0.0));
-			}
-			int termId = ind.vocabulary.get(vector.get(i).item1).item1;
-			ind.invertedIndex.get(termId).add(new Tuple<>(docId,1 + Math.log(vector.get(i).item2)));
-		}
+		// actualizar estructuras del índice parcial: vocabulary, documents e invertedIndex
+		String namedoc = docFile.name;
+
+		partial.add(namedoc, new Tuple<>(document.item1, document.item2), counter.termIDs(), counter.logWeights());
+		this.addStage.lap(start);
+		this.documentStage.lap(begin);
+
+		this.documentsCounter.increment();
+		this.charactersCounter.add(text.length());
+		this.tokensCounter.add(tokens[0]);
+		this.postingsCounter.add(counter.size());
 	}
 }
@@ -0,0 +1,319 @@
+package ti;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects timers and counters while indexing.
+ * <p>
+ * Every stage of the indexer, such as parsing a document or writing a section of the index file, has a {@link Stage}
+ * that records how long each run of the stage took in a histogram, so the report shows not only the total time of
+ * each stage, but also its median and 99th percentile per document. Counters hold totals such as the number of
+ * documents or postings. Recording is lock-free, so the indexing threads can share one instance.
+ * <p>
+ * The statistics are written as a JSON report with {@link #writeReport}, and can be watched while indexing runs by
+ * {@link #register registering} them as a JMX MXBean.
+ */
+public class IndexingStats implements IndexingStatsMXBean
+{
+    /**
+     * The JMX name the statistics are registered with.
+     */
+    public static final String OBJECT_NAME = "ti:type=IndexingStats";
+
+    protected final long startTime;
+    protected final LinkedHashMap<String, Stage> stages;
+    protected final LinkedHashMap<String, LongAdder> counters;
+    protected ObjectName registered;
+
+    /**
+     * Creates new, empty statistics, and starts the clock of the report.
+     */
+    public IndexingStats()
+    {
+        this.startTime = System.nanoTime();
+        this.stages = new LinkedHashMap<>();
+        this.counters = new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns a stage, creating it if needed. Stages appear in the report in order of creation.
+     *
+     * @param name the name of the stage.
+     * @return the stage.
+     */
+    public synchronized Stage stage(String name)
+    {
+        return this.stages.computeIfAbsent(name, n -> new Stage());
+    }
+
+    /**
+     * Returns a counter, creating it if needed. Counters appear in the report in order of creation.
+     *
+     * @param name the name of the counter.
+     * @return the counter.
+     */
+    public synchronized LongAdder counter(String name)
+    {
+        return this.counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Records a run of a stage that started at the given time and ends now, if there are statistics.
+     *
+     * @param stats the statistics, or {@code null} to record nothing.
+     * @param name  the name of the stage.
+     * @param start the start time of the run, as given by {@link System#nanoTime}.
+     * @return the current time, to be used as the start time of the next stage.
+     */
+    public static long record(IndexingStats stats, String name, long start)
+    {
+        if (stats != null)
+            return stats.stage(name).lap(start);
+        return System.nanoTime();
+    }
+
+    /**
+     * Writes the statistics as a JSON report to the specified file.
+     *
+     * @param file the file to write to.
+     * @throws IOException if an error occurs while writing the report.
+     */
+    public void writeReport(Path file) throws IOException
+    {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(this.getReport());
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server, under {@link #OBJECT_NAME}.
+     *
+     * @throws JMException if the statistics cannot be registered.
+     */
+    public synchronized void register() throws JMException
+    {
+        if (this.registered != null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+        server.registerMBean(this, name);
+        this.registered = name;
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they were registered.
+     *
+     * @throws JMException if the statistics cannot be unregistered.
+     */
+    public synchronized void unregister() throws JMException
+    {
+        if (this.registered == null)
+            return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registered);
+        this.registered = null;
+    }
+
+    @Override
+    public double getElapsedSeconds()
+    {
+        return (System.nanoTime() - this.startTime) / 1e9;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getCounters()
+    {
+        LinkedHashMap<String, Long> counters = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> counter : this.counters.entrySet())
+            counters.put(counter.getKey(), counter.getValue().sum());
+        return counters;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getStageMillis()
+    {
+        LinkedHashMap<String, Double> millis = new LinkedHashMap<>();
+        for (Map.Entry<String, Stage> stage : this.stages.entrySet())
+            millis.put(stage.getKey(), stage.getValue().total.sum() / 1e6);
+        return millis;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getStageP99Micros()
+    {
+        LinkedHashMap<String, Double> micros = new LinkedHashMap<>();
+        for (Map.Entry<String, Stage> stage : this.stages.entrySet())
+            micros.put(stage.getKey(), stage.getValue().percentile(0.99) / 1e3);
+        return micros;
+    }
+
+    @Override
+    public String getReport()
+    {
+        ArrayList<Map.Entry<String, Stage>> stages;
+        Map<String, Long> counters;
+        synchronized (this) {
+            stages = new ArrayList<>(this.stages.entrySet());
+            counters = this.getCounters();
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"elapsedSeconds\": ").append(number(this.getElapsedSeconds()));
+        json.append(",\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            json.append(separator).append("    ").append(string(counter.getKey())).append(": ").append(counter.getValue());
+            separator = ",\n";
+        }
+        json.append(counters.isEmpty() ? "}" : "\n  }");
+        json.append(",\n  \"stages\": {");
+        separator = "\n";
+        for (Map.Entry<String, Stage> entry : stages) {
+            Stage stage = entry.getValue();
+            long count = stage.count.sum();
+            json.append(separator).append("    ").append(string(entry.getKey())).append(": {");
+            json.append("\"count\": ").append(count);
+            json.append(", \"totalMillis\": ").append(number(stage.total.sum() / 1e6));
+            json.append(", \"meanMicros\": ").append(number(count == 0 ? 0 : stage.total.sum() / 1e3 / count));
+            json.append(", \"p50Micros\": ").append(number(stage.percentile(0.5) / 1e3));
+            json.append(", \"p99Micros\": ").append(number(stage.percentile(0.99) / 1e3));
+            json.append(", \"maxMicros\": ").append(number(stage.max.get() / 1e3));
+            json.append("}");
+            separator = ",\n";
+        }
+        json.append(stages.isEmpty() ? "}" : "\n  }");
+        json.append("\n}");
+        return json.toString();
+    }
+
+    /**
+     * Formats a number for the report, with at most three decimals.
+     */
+    protected static String number(double value)
+    {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+
+    /**
+     * Formats a string as a JSON string literal.
+     */
+    protected static String string(String value)
+    {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if (c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else
+                json.append(c);
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * The durations of the runs of a stage, in a histogram with logarithmic buckets.
+     * <p>
+     * Each power of two is split into {@link #SUB_BUCKETS} buckets, so percentiles are within about 6% of the actual
+     * duration, from nanoseconds to hours, with a fixed number of buckets.
+     */
+    public static class Stage
+    {
+        protected static final int SUB_BITS = 3;
+        protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+        protected static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        protected final LongAdder count = new LongAdder();
+        protected final LongAdder total = new LongAdder();
+        protected final AtomicLong max = new AtomicLong();
+        protected final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        /**
+         * Records a run of the stage.
+         *
+         * @param nanos the duration of the run, in nanoseconds.
+         */
+        public void record(long nanos)
+        {
+            nanos = Math.max(nanos, 0);
+            this.count.increment();
+            this.total.add(nanos);
+            this.max.accumulateAndGet(nanos, Math::max);
+            this.buckets.incrementAndGet(bucket(nanos));
+        }
+
+        /**
+         * Records a run of the stage that started at the given time and ends now.
+         *
+         * @param start the start time of the run, as given by {@link System#nanoTime}.
+         * @return the current time, to be used as the start time of the next stage.
+         */
+        public long lap(long start)
+        {
+            long now = System.nanoTime();
+            this.record(now - start);
+            return now;
+        }
+
+        /**
+         * Returns an estimate of a percentile of the durations: the middle of the bucket it falls in.
+         *
+         * @param fraction the percentile, between {@code 0} and {@code 1}.
+         * @return the estimated duration, in nanoseconds, or {@code 0} if the stage never ran.
+         */
+        public double percentile(double fraction)
+        {
+            long count = 0;
+            for (int b = 0; b < BUCKETS; b++)
+                count += this.buckets.get(b);
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += this.buckets.get(b);
+                if (seen >= rank)
+                    return Math.min(lowerBound(b) + width(b) / 2.0, this.max.get());
+            }
+            return this.max.get();
+        }
+
+        protected static int bucket(long nanos)
+        {
+            if (nanos < SUB_BUCKETS)
+                return (int) nanos;
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+        }
+
+        protected static long lowerBound(int bucket)
+        {
+            if (bucket < SUB_BUCKETS)
+                return bucket;
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        }
+
+        protected static long width(int bucket)
+        {
+            return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ti;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link IndexingStats}, to watch the progress of the indexer with a JMX client.
+ */
+public interface IndexingStatsMXBean
+{
+    /**
+     * Returns the time since indexing started.
+     *
+     * @return the elapsed time, in seconds.
+     */
+    double getElapsedSeconds();
+
+    /**
+     * Returns the current value of every counter.
+     *
+     * @return the counters, by name.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns the total time spent in every stage so far.
+     *
+     * @return the total time of each stage, in milliseconds, by name.
+     */
+    Map<String, Double> getStageMillis();
+
+    /**
+     * Returns the 99th percentile of the duration of every stage so far.
+     *
+     * @return the 99th percentile of each stage, in microseconds, by name.
+     */
+    Map<String, Double> getStageP99Micros();
+
+    /**
+     * Returns the statistics as a JSON report.
+     *
+     * @return the report.
+     */
+    String getReport();
+}
@@ -0,0 +1,114 @@
+package ti;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only {@link PostingsIndex} that reads each postings list from its file only when it is first accessed.
+ * <p>
+ * Opening it reads just the offset table at the end of the file (see {@link PostingsIndex}), which acts as the
+ * directory giving the file offset and length of every list. Decoded lists are kept in a {@link LruCache} bounded by
+ * their estimated heap size, so the index can be much larger than the heap.
+ */
+public class LazyPostingsIndex extends PostingsIndex
+{
+    protected final FileChannel channel;
+    protected final long start;
+    protected final long[] offsets;
+    protected final LruCache<Integer, PostingsList> cache;
+
+    /**
+     * Creates a new lazy postings index over the given region of a file.
+     *
+     * @param channel    the channel to read from. It is not closed by this class.
+     * @param start      the position where the postings index starts in the file.
+     * @param length     the length of the postings index in the file.
+     * @param cacheBytes the maximum estimated heap size of the cached lists.
+     * @throws IOException if an error occurs while reading the offset table.
+     */
+    public LazyPostingsIndex(FileChannel channel, long start, long length, long cacheBytes) throws IOException
+    {
+        super(0);
+        this.channel = channel;
+        this.start = start;
+
+        ByteBuffer count = this.read(start + length - 4, 4);
+        this.offsets = new long[count.getInt() + 1];
+        ByteBuffer table = this.read(start + length - 4 - 8L * this.offsets.length, 8 * this.offsets.length);
+        table.asLongBuffer().get(this.offsets);
+
+        this.cache = new LruCache<>(cacheBytes, list -> 64 + 12L * list.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsList get(int i)
+    {
+        if (i < 0 || i >= this.size())
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size());
+
+        PostingsList list = this.cache.get(i);
+        if (list == null) {
+            try {
+                list = PostingsCodec.decode(this.read(this.start + this.offsets[i], (int) (this.offsets[i + 1] - this.offsets[i])));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            this.cache.put(i, list);
+        }
+        return list;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * Not supported, since the index is read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void add(PostingsList list)
+    {
+        throw new UnsupportedOperationException("Lazy postings indexes are read-only.");
+    }
+
+    /**
+     * Returns the cache of decoded lists, mainly to inspect its counters.
+     *
+     * @return the cache of decoded lists.
+     */
+    public LruCache<Integer, PostingsList> getCache()
+    {
+        return this.cache;
+    }
+
+    /**
+     * Reads the specified region of the file with positioned reads, which are safe to run concurrently.
+     *
+     * @param position the position of the region.
+     * @param length   the length of the region.
+     * @return a buffer with the region contents.
+     * @throws IOException if an error occurs while reading.
+     */
+    protected ByteBuffer read(long position, int length) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (this.channel.read(buf, position + buf.position()) < 0)
+                throw new IOException("Unexpected end of postings file.");
+        }
+        buf.flip();
+        return buf;
+    }
+}
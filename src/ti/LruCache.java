@@ -0,0 +1,150 @@
+package ti;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe cache bounded by the total size of its values, which evicts the least recently used entries first.
+ * <p>
+ * The size of each value is given by a weigher function, usually an estimate of its heap footprint in bytes.
+ * Values larger than the whole capacity are never cached. The cache counts hits, misses and evictions.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public class LruCache<K, V>
+{
+    protected final long capacity;
+    protected final ToLongFunction<V> weigher;
+    protected final LinkedHashMap<K, V> map;
+    protected long weight;
+    protected long hits;
+    protected long misses;
+    protected long evictions;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param capacity the maximum total weight of the cached values.
+     * @param weigher  the function that computes the weight of a value.
+     */
+    public LruCache(long capacity, ToLongFunction<V> weigher)
+    {
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the value cached for the given key, marking it as the most recently used.
+     *
+     * @param key the key.
+     * @return the cached value, or {@code null} if the key is not cached.
+     */
+    public synchronized V get(K key)
+    {
+        V value = this.map.get(key);
+        if (value == null)
+            this.misses++;
+        else
+            this.hits++;
+        return value;
+    }
+
+    /**
+     * Caches the given value, evicting the least recently used entries until the total weight fits the capacity.
+     *
+     * @param key   the key.
+     * @param value the value.
+     */
+    public synchronized void put(K key, V value)
+    {
+        long w = this.weigher.applyAsLong(value);
+        if (w > this.capacity)
+            return;
+
+        V old = this.map.put(key, value);
+        if (old != null)
+            this.weight -= this.weigher.applyAsLong(old);
+        this.weight += w;
+
+        Iterator<Map.Entry<K, V>> it = this.map.entrySet().iterator();
+        while (this.weight > this.capacity && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            this.weight -= this.weigher.applyAsLong(eldest.getValue());
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Removes every entry from the cache. The counters are not reset.
+     */
+    public synchronized void clear()
+    {
+        this.map.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of entries.
+     */
+    public synchronized int size()
+    {
+        return this.map.size();
+    }
+
+    /**
+     * Returns the total weight of the cached values.
+     *
+     * @return the total weight.
+     */
+    public synchronized long weight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached value.
+     *
+     * @return the number of hits.
+     */
+    public synchronized long hits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached value.
+     *
+     * @return the number of misses.
+     */
+    public synchronized long misses()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to make room for new ones.
+     *
+     * @return the number of evictions.
+     */
+    public synchronized long evictions()
+    {
+        return this.evictions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return this.map.size() + " entries, " + this.weight + " of " + this.capacity + " bytes, "
+                + this.hits + " hits, " + this.misses + " misses, " + this.evictions + " evictions";
+    }
+}
@@ -0,0 +1,85 @@
+package ti;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only {@link PostingsIndex} that reads postings lists in place from a buffer, usually a memory-mapped file.
+ * <p>
+ * Opening it only reads the number of lists. Each call to {@link #get} decodes the requested list, and each call to
+ * {@link #cursor} decodes it lazily one block at a time, so nothing is deserialised up front and the pages of the
+ * file are shared with the OS page cache.
+ */
+public class MappedPostingsIndex extends PostingsIndex
+{
+    protected final ByteBuffer buf;
+    protected final int count;
+    protected final int offsetsStart;
+
+    /**
+     * Creates a new postings index over the given buffer, which holds the whole on-disk layout described in
+     * {@link PostingsIndex} between position {@code 0} and its limit.
+     *
+     * @param buf the buffer with the encoded postings index.
+     */
+    public MappedPostingsIndex(ByteBuffer buf)
+    {
+        super(0);
+        this.buf = buf;
+        this.count = buf.getInt(buf.limit() - 4);
+        this.offsetsStart = buf.limit() - 4 - 8 * (this.count + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsList get(int i)
+    {
+        return PostingsCodec.decode(this.list(i));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsCursor cursor(int i)
+    {
+        return PostingsCodec.cursor(this.list(i));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.count;
+    }
+
+    /**
+     * Not supported, since the index is read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void add(PostingsList list)
+    {
+        throw new UnsupportedOperationException("Mapped postings indexes are read-only.");
+    }
+
+    /**
+     * Returns a view of the buffer positioned at the start of the specified encoded list.
+     *
+     * @param i the position of the list.
+     * @return a buffer positioned at the list.
+     */
+    protected ByteBuffer list(int i)
+    {
+        if (i < 0 || i >= this.count)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.count);
+        ByteBuffer view = this.buf.duplicate();
+        // Sections are at most IndexFileWriter.MAX_SECTION_BYTES long, so offsets within them fit in an int
+        view.position((int) this.buf.getLong(this.offsetsStart + 8 * i));
+        return view;
+    }
+}
@@ -0,0 +1,214 @@
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class merges the segments of a {@link SegmentedIndex} on background threads.
+ * <p>
+ * Every call to {@link #maybeMerge} asks the {@link TieredMergePolicy} for runs of committed segments to merge, and
+ * starts a {@link SegmentMerger} for each one on the thread pool. Once a merge is done, the merged segment replaces
+ * the source segments in a new commit, the source segments are deleted, and the policy is asked again, since the new
+ * segment may complete a run in the next tier. Segments added in the meantime are kept, because commits are
+ * {@link SegmentedIndex#update serialised}, and so are documents deleted in the meantime, which are carried over to
+ * the merged segment. Both hold the {@link IndexLock} of the index, so they are also serialised with other processes;
+ * if another process merged the same segments first, the merge is dropped.
+ */
+public class MergeScheduler
+{
+    protected final String path;
+    protected final TieredMergePolicy policy;
+    protected final ExecutorService executor;
+    protected final HashSet<String> merging;
+    protected int running;
+    protected int merges;
+    protected IOException failure;
+
+    /**
+     * Creates a new scheduler for the specified index.
+     *
+     * @param path    the index directory.
+     * @param policy  the policy that chooses the segments to merge.
+     * @param threads the number of merges that may run at the same time.
+     */
+    public MergeScheduler(String path, TieredMergePolicy policy, int threads)
+    {
+        this.path = path;
+        this.policy = policy;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "segment-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.merging = new HashSet<>();
+        this.running = 0;
+        this.merges = 0;
+    }
+
+    /**
+     * Starts the merges chosen by the policy over the committed segments, and returns without waiting for them.
+     *
+     * @throws IOException if an error occurs while reading the commit file.
+     */
+    public synchronized void maybeMerge() throws IOException
+    {
+        ArrayList<Tuple<String, Integer>> segments = SegmentedIndex.readCommit(this.path);
+        ArrayList<Integer> sizes = new ArrayList<>(segments.size());
+        boolean[] merging = new boolean[segments.size()];
+        for (int s = 0; s < segments.size(); s++) {
+            sizes.add(segments.get(s).item2);
+            merging[s] = this.merging.contains(segments.get(s).item1);
+        }
+
+        int[] run;
+        while ((run = this.policy.findMerge(sizes, merging)) != null) {
+            ArrayList<String> names = new ArrayList<>();
+            for (int s = run[0]; s < run[1]; s++) {
+                names.add(segments.get(s).item1);
+                merging[s] = true;
+            }
+            this.merging.addAll(names);
+            this.running++;
+            this.executor.execute(() -> this.merge(names));
+        }
+    }
+
+    /**
+     * Waits until all merges, including the ones they trigger, are done, and stops the background threads.
+     *
+     * @return the number of merges done.
+     * @throws IOException if any merge failed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized int close() throws IOException, InterruptedException
+    {
+        while (this.running > 0)
+            this.wait();
+        this.executor.shutdown();
+        if (this.failure != null)
+            throw this.failure;
+        return this.merges;
+    }
+
+    /**
+     * Merges the specified segments and commits the result.
+     *
+     * @param names the names of the consecutive segments to merge.
+     */
+    protected void merge(List<String> names)
+    {
+        File target = null;
+        boolean committed = false;
+        try {
+            target = SegmentedIndex.newSegment(this.path);
+            SegmentMerger merger = new SegmentMerger(this.path, names);
+            int documents = merger.merge(target);
+
+            String merged = target.getName();
+            IndexLock lock = IndexLock.lock(this.path);
+            try {
+                if (!this.isCommitted(names)) {
+                    this.drop(names, target);
+                    return;
+                }
+                // Documents deleted while merging
+                BitSet deleted = new BitSet(documents);
+                for (int s = 0; s < names.size(); s++) {
+                    BitSet source = Index.readDeleted(new File(this.path, names.get(s)), merger.documents(s));
+                    if (source == null)
+                        continue;
+                    for (int docID = source.nextSetBit(0); docID >= 0; docID = source.nextSetBit(docID + 1)) {
+                        if (merger.mergedDocID(s, docID) >= 0)
+                            deleted.set(merger.mergedDocID(s, docID));
+                    }
+                }
+                if (!deleted.isEmpty())
+                    Index.writeDeleted(target, documents, deleted);
+
+                SegmentedIndex.update(this.path, segments -> {
+                    int first = segments.indexOf(names.get(0));
+                    segments.subList(first, first + names.size()).clear();
+                    if (documents > 0)
+                        segments.add(first, merged);
+                    return segments;
+                });
+                committed = true;
+            } finally {
+                lock.close();
+            }
+            if (documents == 0)
+                SegmentedIndex.delete(target);
+            target = null;
+            for (String name : names)
+                SegmentedIndex.delete(new File(this.path, name));
+
+            synchronized (this) {
+                this.merges++;
+                this.merging.removeAll(names);
+            }
+            this.maybeMerge();
+        } catch (IOException | RuntimeException ex) {
+            try {
+                // Another process may have merged the segments and deleted them while they were read
+                if (!committed && !this.isCommitted(names)) {
+                    this.drop(names, target);
+                    return;
+                }
+            } catch (IOException commitException) {
+                ex.addSuppressed(commitException);
+            }
+            synchronized (this) {
+                if (this.failure == null)
+                    this.failure = ex instanceof IOException ? (IOException) ex : new IOException("Cannot merge segments " + names + ".", ex);
+            }
+            try {
+                if (target != null)
+                    SegmentedIndex.delete(target);
+            } catch (IOException cleanup) {
+                // The segment is not committed; the error that matters is the one above
+            }
+        } finally {
+            synchronized (this) {
+                this.running--;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the specified segments are still committed one after the other.
+     *
+     * @param names the names of the consecutive segments.
+     * @return {@code true} if the segments are committed.
+     * @throws IOException if an error occurs while reading the commit file.
+     */
+    protected boolean isCommitted(List<String> names) throws IOException
+    {
+        List<String> segments = SegmentedIndex.listSegments(this.path);
+        int first = segments.indexOf(names.get(0));
+        return first >= 0 && first + names.size() <= segments.size()
+                && segments.subList(first, first + names.size()).equals(names);
+    }
+
+    /**
+     * Drops a merge whose segments were merged by another process, deleting the merged segment.
+     *
+     * @param names  the names of the segments.
+     * @param target the directory of the merged segment, or {@code null} if it was not created.
+     * @throws IOException if an error occurs while deleting the merged segment.
+     */
+    protected void drop(List<String> names, File target) throws IOException
+    {
+        if (target != null && target.exists())
+            SegmentedIndex.delete(target);
+        synchronized (this) {
+            this.merging.removeAll(names);
+        }
+    }
+}
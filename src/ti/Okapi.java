@@ -3,7 +3,6 @@ package ti;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 
 public class Okapi implements RetrievalModel {
 
@@ -33,42 +32,32 @@ public class Okapi implements RetrievalModel {
 
 		// P1
 
-		//Crear vector d:
-		//		id doc,				     id term, wtd
-		HashMap<Integer, ArrayList<Tuple<Integer, Double>>> d = new HashMap<>();
-		for (Tuple<Integer, Double> term : queryVector){
-			ArrayList<Tuple<Integer, Double>> docs = index.invertedIndex.get(term.item1);
-			for (Tuple<Integer, Double> doc : docs){
-				if (!d.containsKey(doc.item1)){
-					d.put(doc.item1, new ArrayList<Tuple<Integer, Double>>());
-					d.get(doc.item1).add(new Tuple<Integer, Double>(term.item1, doc.item2));
-				} else{
-					d.get(doc.item1).add(new Tuple<Integer, Double>(term.item1, doc.item2));
-				}
-			}
-		}
-		
 		//Constantes OKAPI BM25:
-		Double k = 2.0; //o 1.2
-		Double b = 0.75;
+		double k = 2.0; //o 1.2
+		double b = 0.75;
 
-		//Calcular similitud para cada documento:
-		for(Integer docId : d.keySet()){
-			ArrayList<Tuple<Integer, Double>> doc = d.get(docId);
-			Double sim = 0.0;
-			int j = 0;
-			for(int i=0; i<doc.size(); i++){
-				while(doc.get(i).item1 != queryVector.get(j).item1)
-					j++;
+		//Acumular similitud para cada documento:
+		//		id doc -> sim
+		double[] d = new double[index.documents.size()];
+		boolean[] matched = new boolean[index.documents.size()];
+		for (Tuple<Integer, Double> term : queryVector){
+			double idf = term.item2;
+			PostingsCursor docs = index.invertedIndex.cursor(term.item1);
+			while (docs.next()){
 			/**
 			 * Nota: a falta de longitud del documento y longitud media de los documentos indexados
 			 * (se deberían calcular al hacer el indice, otra práctica) ponemos valor 1 a la divisón.
 			 */
-
-			//			'			idf		  ' * '		tftd	  ' *		 / '	tftd		'			^Nota
-				sim += queryVector.get(j).item2 * (doc.get(i).item2 * (k+1)) / (doc.get(i).item2 + k*(1-b + b*1));
+				double tftd = docs.weight();
+			//			'  idf  ' * '	tftd	' *		 / '	tftd	'			^Nota
+				d[docs.id()] += idf * (tftd * (k+1)) / (tftd + k*(1-b + b*1));
+				matched[docs.id()] = true;
 			}
-			results.add(new Tuple<Integer,Double>(docId,sim));
+		}
+
+		for(int docId=0; docId<d.length; docId++){
+			if(matched[docId] && !index.isDeleted(docId))
+				results.add(new Tuple<Integer,Double>(docId,d[docId]));
 		}
 
 		// Ordenar documentos por similitud y devolver
@@ -107,7 +96,7 @@ public class Okapi implements RetrievalModel {
 		// Calcular idf para cada término en la query.
 		Integer nd = index.documents.size();
 		for (Tuple<Integer, Double> tup : vector){
-			Integer ct = index.invertedIndex.get(tup.item1).size();
+			Integer ct = index.invertedIndex.cursor(tup.item1).size();
 			tup.item2 = Math.log10((nd-ct+0.5)/(ct+0.5));
 		}
 
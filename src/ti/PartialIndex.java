@@ -0,0 +1,181 @@
+package ti;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the first-pass output for a chunk of documents: their names and texts, a vocabulary with its own
+ * {@code termID}s and the postings of each term, with {@code docID}s local to the chunk.
+ * <p>
+ * Partial indexes are built independently, one per thread, and then merged into the index in the order of their
+ * chunks, first their {@link #mergeDocuments documents} and then their {@link #mergePostings postings}. Local
+ * {@code termID}s are given in order of first appearance, as the index does, so merging the chunks in order yields
+ * exactly the same {@code termID}s and {@code docID}s as indexing the documents one by one.
+ * The terms of a document are {@link #vocabulary interned} into local {@code termID}s as they are tokenized, before
+ * the document is added.
+ */
+public class PartialIndex
+{
+    protected final TermIdTable vocabulary;              // [term] <-> local termID
+    protected final ArrayList<PostingsList> postings;    // [local termID] -> (local docID, weight)+
+    protected final ArrayList<String> docNames;          // [local docID] -> docName
+    protected final ArrayList<Tuple<String, String>> docTexts;
+    protected long postingsCount;
+    protected int skipped;
+    protected String lastOrigin;
+
+    /**
+     * Creates a new, empty partial index.
+     */
+    public PartialIndex()
+    {
+        this.vocabulary = new TermIdTable();
+        this.postings = new ArrayList<>();
+        this.docNames = new ArrayList<>();
+        this.docTexts = new ArrayList<>();
+    }
+
+    /**
+     * Returns the vocabulary of the partial index, where the terms of a document are interned before it is
+     * {@link #add added}.
+     *
+     * @return the vocabulary.
+     */
+    public TermIdTable vocabulary()
+    {
+        return this.vocabulary;
+    }
+
+    /**
+     * Adds a document to the partial index.
+     *
+     * @param docName the name of the document.
+     * @param docText a {@link Tuple} containing the document title and its body.
+     * @param termIDs the local {@code termID}s of the terms of the document, from {@link #vocabulary}.
+     * @param weights the weight of each term.
+     */
+    public void add(String docName, Tuple<String, String> docText, int[] termIDs, double[] weights)
+    {
+        int docID = this.docNames.size();
+        this.docNames.add(docName);
+        this.docTexts.add(docText);
+        for (int i = 0; i < termIDs.length; i++) {
+            while (this.postings.size() <= termIDs[i])
+                this.postings.add(new PostingsList());
+            this.postings.get(termIDs[i]).add(docID, weights[i]);
+            this.postingsCount++;
+        }
+    }
+
+    /**
+     * Returns the number of documents in the partial index.
+     *
+     * @return the number of documents.
+     */
+    public int size()
+    {
+        return this.docNames.size();
+    }
+
+    /**
+     * Counts a document of the chunk that could not be indexed.
+     */
+    public void skip()
+    {
+        this.skipped++;
+    }
+
+    /**
+     * Records where the last document of the chunk comes from, whether it could be indexed or not.
+     *
+     * @param origin the origin of the document.
+     */
+    public void consumed(String origin)
+    {
+        this.lastOrigin = origin;
+    }
+
+    /**
+     * Returns where the last document of the chunk comes from (see {@link #consumed}).
+     *
+     * @return the origin of the document, or {@code null} if it was not recorded.
+     */
+    public String lastOrigin()
+    {
+        return this.lastOrigin;
+    }
+
+    /**
+     * Returns the number of documents of the chunk, including those that could not be indexed.
+     *
+     * @return the number of documents of the chunk.
+     */
+    public int chunkSize()
+    {
+        return this.docNames.size() + this.skipped;
+    }
+
+    /**
+     * Returns an upper bound of the heap that the postings and vocabulary of this partial index take once merged
+     * into an index.
+     *
+     * @return the estimated size in bytes.
+     */
+    public long estimatedBytes()
+    {
+        return 12 * this.postingsCount + 128L * this.vocabulary.size();
+    }
+
+    /**
+     * Appends the documents of this partial index to the given index, after the documents it already has, without their
+     * cached version, which is left to the caller (see {@link #documentTexts}). Their postings are appended next with
+     * {@link #mergePostings}.
+     *
+     * @param ind the index to merge into.
+     * @return the {@code docID} of the first document in the index.
+     */
+    public int mergeDocuments(Index ind)
+    {
+        int docBase = ind.documents.size();
+        for (int docID = 0; docID < this.docNames.size(); docID++)
+            ind.documents.add(new Tuple<>(this.docNames.get(docID), 0.0));
+        return docBase;
+    }
+
+    /**
+     * Returns the title and body of each document of the partial index, in order.
+     *
+     * @return the texts of the documents.
+     */
+    public List<Tuple<String, String>> documentTexts()
+    {
+        return this.docTexts;
+    }
+
+    /**
+     * Appends the postings of this partial index to the given index, once its documents are
+     * {@link #mergeDocuments appended}. New terms get the next {@code termID}s of the index, in order of first
+     * appearance.
+     *
+     * @param ind     the index to merge into.
+     * @param docBase the {@code docID} that the first document got in the index.
+     */
+    public void mergePostings(Index ind, int docBase)
+    {
+        for (int termID = 0; termID < this.postings.size(); termID++) {
+            PostingsList local = this.postings.get(termID);
+            if (local.size() == 0)
+                continue; // interned by a document that failed before it was added
+            String term = this.vocabulary.term(termID);
+            Tuple<Integer, Double> entry = ind.vocabulary.get(term);
+            if (entry == null) {
+                ind.invertedIndex.add(new PostingsList(local.size()));
+                entry = new Tuple<>(ind.invertedIndex.size() - 1, 0.0);
+                ind.vocabulary.put(term, entry);
+            }
+            PostingsList target = ind.invertedIndex.get(entry.item1);
+            for (int p = 0; p < local.size(); p++)
+                target.add(docBase + local.id(p), local.weight(p));
+        }
+    }
+}
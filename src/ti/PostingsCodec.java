@@ -0,0 +1,199 @@
+package ti;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes and decodes {@link PostingsList}s in a compressed binary form.
+ * <p>
+ * An encoded list starts with its size as a variable-byte integer, followed by blocks of up to {@link #BLOCK_SIZE}
+ * postings. Each block contains:
+ * <ul>
+ * <li>the largest absolute weight in the block, as a {@code float} scale;</li>
+ * <li>the gaps between consecutive ids, as variable-byte integers (the first gap of the list is taken from 0);</li>
+ * <li>the weights quantized to 16 bits relative to the block scale.</li>
+ * </ul>
+ * Ids must be in non-decreasing order, which holds for both the inverted index (docIDs) and the direct index
+ * (termIDs). Quantization keeps weights within {@code scale / 32767} of their original value.
+ */
+public final class PostingsCodec
+{
+    /**
+     * The number of postings in each block.
+     */
+    public static final int BLOCK_SIZE = 128;
+
+    protected static final int QUANTUM = Short.MAX_VALUE;
+
+    private PostingsCodec()
+    {
+    }
+
+    /**
+     * Writes the encoded form of the given postings list.
+     *
+     * @param list the postings list to encode.
+     * @param out  the output to write to.
+     * @return the number of bytes written.
+     * @throws IOException if an error occurs while writing.
+     */
+    public static int encode(PostingsList list, DataOutput out) throws IOException
+    {
+        int bytes = writeVInt(out, list.size());
+        int prev = 0;
+        for (int start = 0; start < list.size(); start += BLOCK_SIZE) {
+            int end = Math.min(start + BLOCK_SIZE, list.size());
+
+            float scale = 0f;
+            for (int i = start; i < end; i++)
+                scale = Math.max(scale, (float) Math.abs(list.weight(i)));
+            out.writeFloat(scale);
+            bytes += 4;
+
+            for (int i = start; i < end; i++) {
+                int id = list.id(i);
+                if (id < prev)
+                    throw new IllegalArgumentException("Postings ids must be sorted: " + id + " after " + prev + ".");
+                bytes += writeVInt(out, id - prev);
+                prev = id;
+            }
+            for (int i = start; i < end; i++) {
+                out.writeShort(scale == 0f ? 0 : (int) Math.round(list.weight(i) / scale * QUANTUM));
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes a whole postings list starting at the current position of the given buffer.
+     * The position of the buffer is not modified.
+     *
+     * @param buf the buffer holding the encoded list.
+     * @return the decoded postings list.
+     */
+    public static PostingsList decode(ByteBuffer buf)
+    {
+        PostingsCursor cursor = cursor(buf);
+        PostingsList list = new PostingsList(cursor.size());
+        while (cursor.next())
+            list.add(cursor.id(), cursor.weight());
+        return list;
+    }
+
+    /**
+     * Returns a cursor over the encoded list starting at the current position of the given buffer.
+     * The list is decoded one block at a time as the cursor advances, and the position of the buffer is not
+     * modified.
+     *
+     * @param buf the buffer holding the encoded list.
+     * @return a cursor over the encoded list.
+     */
+    public static PostingsCursor cursor(ByteBuffer buf)
+    {
+        return new BlockCursor(buf.duplicate());
+    }
+
+    /**
+     * Writes a non-negative integer in variable-byte form: 7 bits per byte, least significant group first, with the
+     * high bit set on every byte but the last one.
+     *
+     * @param out   the output to write to.
+     * @param value the value to write.
+     * @return the number of bytes written.
+     * @throws IOException if an error occurs while writing.
+     */
+    public static int writeVInt(DataOutput out, int value) throws IOException
+    {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+            bytes++;
+        }
+        out.writeByte(value);
+        return bytes;
+    }
+
+    /**
+     * Reads a variable-byte integer written by {@link #writeVInt}.
+     *
+     * @param buf the buffer to read from.
+     * @return the value read.
+     */
+    public static int readVInt(ByteBuffer buf)
+    {
+        int b = buf.get();
+        int value = b & 0x7F;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * A cursor that decodes one block of postings at a time.
+     */
+    protected static class BlockCursor implements PostingsCursor
+    {
+        protected final ByteBuffer buf;
+        protected final int size;
+        protected final int[] ids = new int[BLOCK_SIZE];
+        protected final double[] weights = new double[BLOCK_SIZE];
+        protected int decoded;  // postings decoded so far, including the current block
+        protected int blockLength;
+        protected int pos;
+        protected int prev;
+
+        protected BlockCursor(ByteBuffer buf)
+        {
+            this.buf = buf;
+            this.size = readVInt(buf);
+            this.decoded = 0;
+            this.blockLength = 0;
+            this.pos = -1;
+            this.prev = 0;
+        }
+
+        @Override
+        public boolean next()
+        {
+            if (++this.pos < this.blockLength)
+                return true;
+            if (this.decoded == this.size)
+                return false;
+
+            this.blockLength = Math.min(BLOCK_SIZE, this.size - this.decoded);
+            double scale = this.buf.getFloat() / (double) QUANTUM;
+            for (int i = 0; i < this.blockLength; i++) {
+                this.prev += readVInt(this.buf);
+                this.ids[i] = this.prev;
+            }
+            for (int i = 0; i < this.blockLength; i++)
+                this.weights[i] = this.buf.getShort() * scale;
+            this.decoded += this.blockLength;
+            this.pos = 0;
+            return true;
+        }
+
+        @Override
+        public int id()
+        {
+            return this.ids[this.pos];
+        }
+
+        @Override
+        public double weight()
+        {
+            return this.weights[this.pos];
+        }
+
+        @Override
+        public int size()
+        {
+            return this.size;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ti;
+
+/**
+ * This interface defines a forward-only cursor over a postings list.
+ * <p>
+ * A cursor starts positioned before the first posting, so the usual iteration is:
+ * <pre>
+ * PostingsCursor c = list.cursor();
+ * while (c.next()) {
+ *     ... c.id() ... c.weight() ...
+ * }
+ * </pre>
+ * Implementations never box the {@code id} or the {@code weight} of a posting.
+ */
+public interface PostingsCursor
+{
+    /**
+     * Moves the cursor to the next posting.
+     *
+     * @return {@code true} if the cursor is positioned on a posting, or {@code false} if the list is exhausted.
+     */
+    boolean next();
+
+    /**
+     * Returns the {@code id} of the current posting (a {@code docID} or a {@code termID}).
+     *
+     * @return the id of the current posting.
+     */
+    int id();
+
+    /**
+     * Returns the weight of the current posting.
+     *
+     * @return the weight of the current posting.
+     */
+    double weight();
+
+    /**
+     * Returns the total number of postings in the list this cursor iterates.
+     *
+     * @return the size of the postings list.
+     */
+    int size();
+}
@@ -0,0 +1,146 @@
+package ti;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class represents a collection of postings lists addressed by position, such as the inverted index
+ * ({@code [termID] -> (docID, weight)+}) or the direct index ({@code [docID] -> (termID, weight)+}).
+ * <p>
+ * This implementation keeps every list in memory and is the one used while building an index. Subclasses may read
+ * the lists from other sources, like {@link MappedPostingsIndex}.
+ * <p>
+ * On disk, a postings index is stored as the {@link PostingsCodec encoded} lists one after the other, followed by a
+ * table with the {@code long} offset of each list (plus the end offset of the last one) and the {@code int} number of
+ * lists. Keeping the table at the end lets the file be written in a single streaming pass.
+ */
+public class PostingsIndex
+{
+    protected ArrayList<PostingsList> lists;
+
+    /**
+     * Creates a new, empty postings index.
+     */
+    public PostingsIndex()
+    {
+        this.lists = new ArrayList<>();
+    }
+
+    /**
+     * Creates a new, empty postings index with room for the specified number of lists.
+     *
+     * @param capacity the initial capacity.
+     */
+    public PostingsIndex(int capacity)
+    {
+        this.lists = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Returns the postings list at the specified position.
+     *
+     * @param i the {@code termID} or {@code docID} of the list.
+     * @return the postings list.
+     */
+    public PostingsList get(int i)
+    {
+        return this.lists.get(i);
+    }
+
+    /**
+     * Returns a cursor over the postings list at the specified position.
+     * Scoring loops should prefer this method, since subclasses can then avoid materialising the whole list.
+     *
+     * @param i the {@code termID} or {@code docID} of the list.
+     * @return a cursor over the postings list.
+     */
+    public PostingsCursor cursor(int i)
+    {
+        return this.get(i).cursor();
+    }
+
+    /**
+     * Returns the number of postings lists.
+     *
+     * @return the number of postings lists.
+     */
+    public int size()
+    {
+        return this.lists.size();
+    }
+
+    /**
+     * Appends a postings list at the end.
+     *
+     * @param list the postings list to append.
+     */
+    public void add(PostingsList list)
+    {
+        this.lists.add(list);
+    }
+
+    /**
+     * Writes all postings lists in the on-disk layout described in the {@link PostingsIndex class} documentation.
+     *
+     * @param out the output to write to.
+     * @throws IOException if an error occurs while writing.
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        Writer writer = new Writer(out, this.size());
+        for (int i = 0; i < this.size(); i++)
+            writer.add(this.get(i));
+        writer.finish();
+    }
+
+    /**
+     * Writes a postings index one list at a time, in a single streaming pass.
+     */
+    public static class Writer
+    {
+        protected final DataOutputStream out;
+        protected long[] offsets;
+        protected int count;
+
+        /**
+         * Creates a new writer.
+         *
+         * @param out      the output to write to.
+         * @param capacity the expected number of lists.
+         */
+        public Writer(DataOutputStream out, int capacity)
+        {
+            this.out = out;
+            this.offsets = new long[capacity + 1];
+            this.count = 0;
+        }
+
+        /**
+         * Appends a postings list at the end.
+         *
+         * @param list the postings list to append.
+         * @throws IOException if an error occurs while writing.
+         */
+        public void add(PostingsList list) throws IOException
+        {
+            if (this.count + 1 == this.offsets.length)
+                this.offsets = Arrays.copyOf(this.offsets, 2 * this.offsets.length);
+            this.offsets[this.count + 1] = this.offsets[this.count] + PostingsCodec.encode(list, this.out);
+            this.count++;
+        }
+
+        /**
+         * Writes the offset table and the number of lists that end the postings index.
+         *
+         * @throws IOException if an error occurs while writing.
+         */
+        public void finish() throws IOException
+        {
+            for (int i = 0; i <= this.count; i++)
+                this.out.writeLong(this.offsets[i]);
+            this.out.writeInt(this.count);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a postings list stored in two parallel primitive arrays.
+ * <p>
+ * {@code (id, weight)+}
+ * <p>
+ * The {@code i}-th posting is made of {@code ids[i]} and {@code weights[i]}. In the inverted index the ids are
+ * {@code docID}s, and in the direct index they are {@code termID}s. Postings are never boxed, so a list costs 12 bytes
+ * per posting plus two array headers once it has been {@link #trimToSize trimmed}.
+ */
+public class PostingsList
+{
+    protected static final int DEFAULT_CAPACITY = 4;
+
+    protected int[] ids;
+    protected double[] weights;
+    protected int size;
+
+    /**
+     * Creates a new, empty postings list.
+     */
+    public PostingsList()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty postings list with room for the specified number of postings.
+     *
+     * @param capacity the initial capacity of the list.
+     */
+    public PostingsList(int capacity)
+    {
+        this.ids = new int[capacity];
+        this.weights = new double[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Creates a new postings list with the specified number of postings, all set to id {@code 0} and weight
+     * {@code 0}, to be filled in any order with {@link #set}.
+     *
+     * @param size the number of postings.
+     * @return the new postings list.
+     */
+    public static PostingsList ofSize(int size)
+    {
+        PostingsList list = new PostingsList(size);
+        list.size = size;
+        return list;
+    }
+
+    /**
+     * Appends a posting to the end of the list.
+     *
+     * @param id     the {@code docID} or {@code termID} of the posting.
+     * @param weight the weight of the posting.
+     */
+    public void add(int id, double weight)
+    {
+        if (this.size == this.ids.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, this.size + (this.size >> 1));
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.weights = Arrays.copyOf(this.weights, capacity);
+        }
+        this.ids[this.size] = id;
+        this.weights[this.size] = weight;
+        this.size++;
+    }
+
+    /**
+     * Returns the number of postings in the list.
+     *
+     * @return the size of the list.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the id of the {@code i}-th posting.
+     *
+     * @param i the position of the posting.
+     * @return the {@code docID} or {@code termID} of the posting.
+     */
+    public int id(int i)
+    {
+        return this.ids[i];
+    }
+
+    /**
+     * Returns the weight of the {@code i}-th posting.
+     *
+     * @param i the position of the posting.
+     * @return the weight of the posting.
+     */
+    public double weight(int i)
+    {
+        return this.weights[i];
+    }
+
+    /**
+     * Sets the weight of the {@code i}-th posting.
+     *
+     * @param i      the position of the posting.
+     * @param weight the new weight of the posting.
+     */
+    public void setWeight(int i, double weight)
+    {
+        this.weights[i] = weight;
+    }
+
+    /**
+     * Sets the id and weight of the {@code i}-th posting.
+     *
+     * @param i      the position of the posting.
+     * @param id     the new {@code docID} or {@code termID} of the posting.
+     * @param weight the new weight of the posting.
+     */
+    public void set(int i, int id, double weight)
+    {
+        this.ids[i] = id;
+        this.weights[i] = weight;
+    }
+
+    /**
+     * Shrinks the backing arrays to the current size of the list.
+     */
+    public void trimToSize()
+    {
+        if (this.size < this.ids.length) {
+            this.ids = Arrays.copyOf(this.ids, this.size);
+            this.weights = Arrays.copyOf(this.weights, this.size);
+        }
+    }
+
+    /**
+     * Sorts the postings of the list by id.
+     */
+    public void sortById()
+    {
+        // Sort (id, position) pairs packed in a long, which keeps the sort primitive
+        long[] order = new long[this.size];
+        for (int i = 0; i < this.size; i++)
+            order[i] = (long) this.ids[i] << 32 | i;
+        Arrays.sort(order);
+        int[] ids = new int[this.size];
+        double[] weights = new double[this.size];
+        for (int i = 0; i < this.size; i++) {
+            int pos = (int) order[i];
+            ids[i] = this.ids[pos];
+            weights[i] = this.weights[pos];
+        }
+        this.ids = ids;
+        this.weights = weights;
+    }
+
+    /**
+     * Returns a new cursor positioned before the first posting of the list.
+     *
+     * @return a cursor over the list.
+     */
+    public PostingsCursor cursor()
+    {
+        return new ArrayCursor(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append('(').append(this.ids[i]).append(", ").append(this.weights[i]).append(')');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * A cursor over the arrays of a {@link PostingsList}.
+     */
+    protected static class ArrayCursor implements PostingsCursor
+    {
+        protected final PostingsList list;
+        protected int pos;
+
+        protected ArrayCursor(PostingsList list)
+        {
+            this.list = list;
+            this.pos = -1;
+        }
+
+        @Override
+        public boolean next()
+        {
+            return ++this.pos < this.list.size;
+        }
+
+        @Override
+        public int id()
+        {
+            return this.list.ids[this.pos];
+        }
+
+        @Override
+        public double weight()
+        {
+            return this.list.weights[this.pos];
+        }
+
+        @Override
+        public int size()
+        {
+            return this.list.size;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package ti;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This class spills the in-memory inverted index to sorted run files and merges them into the index file, so that
+ * the indexer works within a memory budget (single-pass in-memory indexing, or SPIMI).
+ * <p>
+ * A run holds the terms of the in-memory index sorted by their UTF-8 bytes: the {@code int} number of terms, and for
+ * each term the {@code int} length of its bytes, the bytes, the {@code int} number of postings and each posting as an
+ * {@code int docID} and its exact {@code double} weight. Runs cover consecutive ranges of documents, so
+ * concatenating the postings of a term in run order keeps them sorted by {@code docID}.
+ * <p>
+ * The runs are merged twice with a k-way merge: the first pass only reads the document frequencies, to write the
+ * vocabulary with the final IDFs, and the second one writes the weighted postings and computes the document norms.
+ * The {@code termID} of a term is its rank in sorted order. The direct index is not built, since it would need the
+ * whole index in memory; {@link Index#forwardVectors} rebuilds document vectors from the document store when they
+ * are needed.
+ */
+public class RunMerger
+{
+    protected static final int BUFFER_BYTES = 1024 * 1024;
+
+    protected final File dir;
+    protected final ArrayList<File> runs;
+
+    /**
+     * Creates a new merger that spills runs to the specified index directory.
+     *
+     * @param dir the index directory.
+     */
+    public RunMerger(File dir)
+    {
+        this.dir = dir;
+        this.runs = new ArrayList<>();
+    }
+
+    /**
+     * Returns the number of runs spilled so far.
+     *
+     * @return the number of runs.
+     */
+    public int size()
+    {
+        return this.runs.size();
+    }
+
+    /**
+     * Takes over the first runs spilled to the index directory by an interrupted build, and deletes any later ones,
+     * so that spilling goes on after them.
+     *
+     * @param count the number of runs to keep.
+     * @throws IOException if a run to keep is missing, or a later one cannot be deleted.
+     */
+    public void resume(int count) throws IOException
+    {
+        this.runs.clear();
+        for (int r = 0; r < count; r++) {
+            File run = new File(this.dir, "run" + r + ".tmp");
+            if (!run.isFile())
+                throw new IOException("Cannot find the run " + run + ".");
+            this.runs.add(run);
+        }
+        File[] files = this.dir.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list the directory " + this.dir + ".");
+        for (File file : files) {
+            String name = file.getName();
+            if (name.matches("run\\d+\\.tmp") && Integer.parseInt(name.substring(3, name.length() - 4)) >= count)
+                Files.delete(file.toPath());
+        }
+    }
+
+    /**
+     * Writes the vocabulary and inverted index of the given index to a new run, and empties them. The documents are
+     * kept, so that new ones get the next {@code docID}s.
+     *
+     * @param ind the index being built.
+     * @throws IOException if an error occurs while writing the run.
+     */
+    public void spill(Index ind) throws IOException
+    {
+        ArrayList<Tuple<byte[], Integer>> terms = new ArrayList<>(ind.vocabulary.size());
+        for (Map.Entry<String, Tuple<Integer, Double>> entry : ind.vocabulary.entrySet())
+            terms.add(new Tuple<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue().item1));
+        terms.sort((t1, t2) -> Arrays.compareUnsigned(t1.item1, t2.item1));
+
+        File run = new File(this.dir, "run" + this.runs.size() + ".tmp");
+        FileOutputStream file = new FileOutputStream(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_BYTES))) {
+            // Malformed terms (e.g. with unpaired surrogates) may encode to the same bytes; merge their postings
+            int count = 0;
+            for (int t = 0; t < terms.size(); t++) {
+                if (t == 0 || !Arrays.equals(terms.get(t - 1).item1, terms.get(t).item1))
+                    count++;
+            }
+
+            out.writeInt(count);
+            for (int t = 0; t < terms.size(); ) {
+                byte[] bytes = terms.get(t).item1;
+                PostingsList postings = ind.invertedIndex.get(terms.get(t).item2);
+                for (t++; t < terms.size() && Arrays.equals(bytes, terms.get(t).item1); t++)
+                    postings = union(postings, ind.invertedIndex.get(terms.get(t).item2));
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeInt(postings.size());
+                for (int p = 0; p < postings.size(); p++) {
+                    out.writeInt(postings.id(p));
+                    out.writeDouble(postings.weight(p));
+                }
+            }
+            // Checkpoints refer to the runs, so they must be on disk before any checkpoint does
+            out.flush();
+            file.getFD().sync();
+        }
+        this.runs.add(run);
+        ind.vocabulary.clear();
+        ind.invertedIndex = new PostingsIndex();
+    }
+
+    /**
+     * Merges two postings lists sorted by {@code docID}, adding up the weights of the documents in both.
+     *
+     * @param a the first list.
+     * @param b the second list.
+     * @return the merged list.
+     */
+    protected static PostingsList union(PostingsList a, PostingsList b)
+    {
+        PostingsList merged = new PostingsList(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || (i < a.size() && a.id(i) < b.id(j))) {
+                merged.add(a.id(i), a.weight(i));
+                i++;
+            } else if (i == a.size() || b.id(j) < a.id(i)) {
+                merged.add(b.id(j), b.weight(j));
+                j++;
+            } else {
+                merged.add(a.id(i), a.weight(i) + b.weight(j));
+                i++;
+                j++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Spills what is left in memory, merges all runs into the index file of the given index, and deletes them.
+     * The norms of the documents of the index are updated on the way.
+     *
+     * @param ind the index being built.
+     * @throws IOException if an error occurs while reading the runs or writing the index.
+     */
+    public void write(Index ind) throws IOException
+    {
+        if (!ind.vocabulary.isEmpty() || this.runs.isEmpty())
+            this.spill(ind);
+
+        File tmp = Paths.get(ind.path, Index.INDEX_FILE + ".tmp").toFile();
+        IndexFileWriter writer = new IndexFileWriter(tmp);
+        boolean committed = false;
+        try {
+            Index.writeAnalysis(writer, ind.stemmed);
+            int documents = ind.documents.size();
+
+            // Vocabulary: document frequencies only
+            TermDictionary.Writer dictionary = new TermDictionary.Writer(writer.beginSection("vocabulary"));
+            double[] idfs = new double[1024];
+            int terms = 0;
+            try (Merge merge = new Merge()) {
+                while (merge.next()) {
+                    int df = 0;
+                    for (RunReader run : merge.current) {
+                        df += run.count;
+                        run.skipPostings();
+                    }
+                    if (terms == idfs.length)
+                        idfs = Arrays.copyOf(idfs, 2 * terms);
+                    idfs[terms] = Index.idf(documents, df);
+                    dictionary.add(merge.term, terms, idfs[terms]);
+                    terms++;
+                }
+            }
+            dictionary.finish();
+
+            // Inverted: weighted postings and norms
+            double[] norms = new double[documents];
+            PostingsIndex.Writer inverted = new PostingsIndex.Writer(writer.beginSection("inverted"), terms);
+            try (Merge merge = new Merge()) {
+                for (int termID = 0; merge.next(); termID++) {
+                    int df = 0;
+                    for (RunReader run : merge.current)
+                        df += run.count;
+                    PostingsList postings = new PostingsList(df);
+                    for (RunReader run : merge.current) {
+                        for (int p = 0; p < run.count; p++) {
+                            int docID = run.in.readInt();
+                            double weight = run.in.readDouble() * idfs[termID];
+                            postings.add(docID, weight);
+                            norms[docID] += weight * weight;
+                        }
+                    }
+                    inverted.add(postings);
+                }
+            }
+            inverted.finish();
+
+            // Documents
+            DataOutputStream dos = writer.beginSection("documents");
+            dos.writeInt(documents);
+            for (int docID = 0; docID < documents; docID++) {
+                Tuple<String, Double> doc = ind.documents.get(docID);
+                doc.item2 = Math.sqrt(norms[docID]);
+                dos.writeUTF(doc.item1);
+                dos.writeDouble(doc.item2);
+            }
+            writer.close();
+
+            // Flush the cached documents and drop stale deletions before replacing the index file, like Index.save
+            if (ind.documentStore != null)
+                ind.documentStore.flush();
+            Files.deleteIfExists(Paths.get(ind.path, Index.DELETED_FILE));
+            Files.move(tmp.toPath(), Paths.get(ind.path, Index.INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            ind.directIndex = null;
+        } finally {
+            if (!committed)
+                writer.abort();
+        }
+
+        for (File run : this.runs)
+            Files.delete(run.toPath());
+        this.runs.clear();
+    }
+
+    /**
+     * A k-way merge over all runs, which stops at each distinct term with the runs that have it.
+     */
+    protected class Merge implements Closeable
+    {
+        protected final ArrayList<RunReader> readers = new ArrayList<>();
+        protected final PriorityQueue<RunReader> heads = new PriorityQueue<>();
+        protected final ArrayList<RunReader> current = new ArrayList<>(); // runs with the current term, in run order
+        protected byte[] term;
+
+        protected Merge() throws IOException
+        {
+            try {
+                for (int r = 0; r < RunMerger.this.runs.size(); r++) {
+                    RunReader reader = new RunReader(r, RunMerger.this.runs.get(r));
+                    this.readers.add(reader);
+                    if (reader.advance())
+                        this.heads.add(reader);
+                }
+            } catch (IOException ex) {
+                this.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Moves to the next term. The postings of the previous term must have been read or skipped.
+         */
+        protected boolean next() throws IOException
+        {
+            for (RunReader reader : this.current) {
+                if (reader.advance())
+                    this.heads.add(reader);
+            }
+            this.current.clear();
+            if (this.heads.isEmpty())
+                return false;
+            this.term = this.heads.peek().term;
+            while (!this.heads.isEmpty() && Arrays.equals(this.heads.peek().term, this.term))
+                this.current.add(this.heads.poll());
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (RunReader reader : this.readers)
+                reader.in.close();
+        }
+    }
+
+    /**
+     * Reads the terms of a run one after the other, ordered by their bytes and then by run.
+     */
+    protected static class RunReader implements Comparable<RunReader>
+    {
+        protected final int run;
+        protected final DataInputStream in;
+        protected int remaining;
+        protected byte[] term;
+        protected int count;
+
+        protected RunReader(int run, File file) throws IOException
+        {
+            this.run = run;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES / 8));
+            this.remaining = this.in.readInt();
+        }
+
+        protected boolean advance() throws IOException
+        {
+            if (this.remaining == 0)
+                return false;
+            this.remaining--;
+            this.term = new byte[this.in.readInt()];
+            this.in.readFully(this.term);
+            this.count = this.in.readInt();
+            return true;
+        }
+
+        protected void skipPostings() throws IOException
+        {
+            long bytes = 12L * this.count;
+            while (bytes > 0) {
+                int skipped = this.in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+                if (skipped <= 0)
+                    throw new IOException("Unexpected end of run file.");
+                bytes -= skipped;
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other)
+        {
+            int cmp = Arrays.compareUnsigned(this.term, other.term);
+            return cmp != 0 ? cmp : Integer.compare(this.run, other.run);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package ti;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class is the main entry point to run the search engine.
@@ -16,7 +18,22 @@ public class SearchEngine
      */
     protected static void doIndex(String[] args) throws Exception
     {
-        if (args.length < 3 || args.length > 4) {
+        boolean buildDirectIndex = !Arrays.asList(args).contains("--no-direct");
+        boolean stemming = Arrays.asList(args).contains("--stem");
+        boolean incremental = Arrays.asList(args).contains("--append");
+        int mergeFactor = Integer.parseInt(SearchEngine.option(args, "merge-factor", "10"));
+        long memoryMegabytes = Long.parseLong(SearchEngine.option(args, "memory-mb", "0"));
+        boolean quiet = Arrays.asList(args).contains("--quiet");
+        boolean jmx = Arrays.asList(args).contains("--jmx");
+        String report = SearchEngine.option(args, "report", null);
+        int readAhead = Integer.parseInt(SearchEngine.option(args, "read-ahead", "2"));
+        int checkpointEvery = Integer.parseInt(SearchEngine.option(args, "checkpoint-every", "10000"));
+        boolean resume = Arrays.asList(args).contains("--resume");
+        String parser = SearchEngine.option(args, "parser", "jsoup");
+        int threads = Integer.parseInt(SearchEngine.option(args, "threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        args = SearchEngine.positional(args);
+        if (args.length < 3 || args.length > 4 || !(parser.equals("jsoup") || parser.equals("streaming"))) {
             SearchEngine.printUsage();
             System.exit(1);
         }
@@ -29,7 +46,8 @@ public class SearchEngine
             System.err.println("The index path must be a directory.");
             System.exit(1);
         }
-        if (!pathToCollection.exists() || pathToCollection.isFile()) {
+        if (!pathToCollection.exists()
+                || (pathToCollection.isFile() && !CollectionSource.isArchive(pathToCollection.getName()))) {
             System.err.println("Invalid path to document collection.");
             System.exit(1);
         }
@@ -39,8 +57,20 @@ public class SearchEngine
         }
 
         // Build index
-        DocumentProcessor docProcessor = new HtmlProcessor(pathToStopWords);
+        DocumentProcessor docProcessor = parser.equals("streaming")
+                ? new StreamingHtmlProcessor(pathToStopWords, stemming) : new HtmlProcessor(pathToStopWords, stemming);
         Indexer indexer = new Indexer(pathToIndex, pathToCollection, docProcessor);
+        indexer.buildDirectIndex = buildDirectIndex;
+        indexer.incremental = incremental;
+        indexer.mergeFactor = mergeFactor;
+        indexer.threads = threads;
+        indexer.memoryBudget = memoryMegabytes * 1024 * 1024;
+        indexer.verbose = !quiet;
+        indexer.publishJmx = jmx;
+        indexer.reportFile = report == null ? null : new File(report);
+        indexer.readAheadThreads = readAhead;
+        indexer.checkpointInterval = checkpointEvery;
+        indexer.resume = resume;
         indexer.run();
     }
 
@@ -52,7 +82,9 @@ public class SearchEngine
      */
     protected static void doBatch(String[] args) throws Exception
     {
-        if (args.length != 3) {
+        Index.LoadMode loadMode = SearchEngine.loadMode(args);
+        args = SearchEngine.positional(args);
+        if (args.length != 3 || loadMode == null) {
             SearchEngine.printUsage();
             System.exit(1);
         }
@@ -71,16 +103,17 @@ public class SearchEngine
 
         // Read index
         System.err.print("Loading index...");
-        Index ind = new Index(pathToIndex.getPath());
-        ind.load();
+        Index ind = Index.open(pathToIndex.getPath(), loadMode);
         System.err.println("done. Statistics:");
         ind.printStatistics();
 
         // Instantiate retriever and run
-        DocumentProcessor docProcessor = new HtmlProcessor(null); // P3
+        DocumentProcessor docProcessor = new HtmlProcessor(null, ind.isStemmed()); // P3
+        ind.checkProcessor(docProcessor);
         RetrievalModel model = new Cosine(); // P1
         Batch batch = new Batch(pathToQueries, model, ind, docProcessor);
         batch.run();
+        ind.close();
     }
 
     /**
@@ -91,7 +124,10 @@ public class SearchEngine
      */
     protected static void doInteractive(String[] args) throws Exception
     {
-        if (args.length != 2) {
+        Index.LoadMode loadMode = SearchEngine.loadMode(args);
+        long docCacheMegabytes = Long.parseLong(SearchEngine.option(args, "doc-cache-mb", "32"));
+        args = SearchEngine.positional(args);
+        if (args.length != 2 || loadMode == null) {
             SearchEngine.printUsage();
             System.exit(1);
         }
@@ -105,17 +141,52 @@ public class SearchEngine
 
         // Read index
         System.err.print("Loading index...");
-        Index ind = new Index(pathToIndex.getPath());
+        Index ind = SegmentedIndex.isSegmented(pathToIndex.getPath())
+                ? new SegmentedIndex(pathToIndex.getPath(), loadMode) : new Index(pathToIndex.getPath(), loadMode);
+        ind.documentCacheBytes = docCacheMegabytes * 1024 * 1024;
         ind.load();
         System.err.println("done. Statistics:");
         ind.printStatistics();
 
         // Instantiate retriever and run
-        DocumentProcessor docProcessor = new SimpleProcessor(); // P3
+        DocumentProcessor docProcessor = new HtmlProcessor(null, ind.isStemmed()); // P3
+        ind.checkProcessor(docProcessor);
         RetrievalModel cosine = new Cosine(); // P1
         //RetrievalModel cosine = new CosineWithFeedback(50, 0.0,100.0);//,0.75); // P4 //feedbackDepth, feedbackAlpha, feedbackBeta
         Interactive inter = new Interactive(cosine, ind, docProcessor);
         inter.run();
+        System.err.println("Document cache: " + ind.getDocumentCache() + ".");
+        ind.close();
+    }
+
+    /**
+     * Delete documents from an index with the given command-line arguments.
+     *
+     * @param args the raw command-line arguments.
+     * @throws Exception if an error occurs during the process.
+     */
+    protected static void doDelete(String[] args) throws Exception
+    {
+        args = SearchEngine.positional(args);
+        if (args.length < 3) {
+            SearchEngine.printUsage();
+            System.exit(1);
+        }
+        File pathToIndex = new File(args[1]);
+
+        // Check console arguments
+        if (!pathToIndex.exists() || pathToIndex.isFile()) {
+            System.err.println("Index directory does not exist.");
+            System.exit(1);
+        }
+
+        // Delete documents
+        Index ind = Index.open(pathToIndex.getPath(), Index.LoadMode.MAPPED);
+        int deleted = 0;
+        for (int i = 2; i < args.length; i++)
+            deleted += ind.delete(args[i]);
+        ind.close();
+        System.err.println("Deleted " + deleted + " documents.");
     }
 
     public static void main(String[] args) throws Exception
@@ -134,19 +205,74 @@ public class SearchEngine
             case "interactive":
                 SearchEngine.doInteractive(args);
                 break;
+            case "delete":
+                SearchEngine.doDelete(args);
+                break;
             default:
                 SearchEngine.printUsage();
                 System.exit(1);
         }
     }
 
+    /**
+     * Returns the positional arguments, that is, those that are not {@code --name[=value]} options.
+     *
+     * @param args the raw command-line arguments.
+     * @return the positional arguments.
+     */
+    protected static String[] positional(String[] args)
+    {
+        ArrayList<String> positional = new ArrayList<>();
+        for (String arg : args)
+            if (!arg.startsWith("--"))
+                positional.add(arg);
+        return positional.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the value of a {@code --name=value} option.
+     *
+     * @param args         the raw command-line arguments.
+     * @param name         the name of the option, without the leading dashes.
+     * @param defaultValue the value to return if the option is not given.
+     * @return the value of the option, or {@code defaultValue} if it is not given.
+     */
+    protected static String option(String[] args, String name, String defaultValue)
+    {
+        for (String arg : args)
+            if (arg.startsWith("--" + name + "="))
+                return arg.substring(name.length() + 3);
+        return defaultValue;
+    }
+
+    /**
+     * Returns the {@link Index.LoadMode} given with the {@code --load} option, {@link Index.LoadMode#MAPPED} by
+     * default.
+     *
+     * @param args the raw command-line arguments.
+     * @return the load mode, or {@code null} if the option value is not valid.
+     */
+    protected static Index.LoadMode loadMode(String[] args)
+    {
+        String mode = SearchEngine.option(args, "load", "mapped");
+        for (Index.LoadMode m : Index.LoadMode.values())
+            if (m.name().equalsIgnoreCase(mode))
+                return m;
+        return null;
+    }
+
     protected static void printUsage()
     {
         System.err.println("Usage: ti.SearchEngine <command> <options>");
         System.err.println();
         System.err.println("where <command> and <options> are one of:");
-        System.err.println("  - index <path-to-index> <path-to-collection> [<path-to-stopwords>]");
-        System.err.println("  - batch <path-to-index> <path-to-queries>");
-        System.err.println("  - interactive <path-to-index>");
+        System.err.println("  - index <path-to-index> <path-to-collection> [<path-to-stopwords>] [--no-direct]");
+        System.err.println("      [--stem] [--threads=<threads>] [--memory-mb=<megabytes>]");
+        System.err.println("      [--quiet] [--report=<path-to-json>] [--jmx] [--read-ahead=<archives>]");
+        System.err.println("      [--checkpoint-every=<documents>] [--resume] [--parser=jsoup|streaming]");
+        System.err.println("      [--append [--merge-factor=<segments>]]");
+        System.err.println("  - batch <path-to-index> <path-to-queries> [--load=memory|mapped|lazy]");
+        System.err.println("  - interactive <path-to-index> [--load=memory|mapped|lazy] [--doc-cache-mb=<megabytes>]");
+        System.err.println("  - delete <path-to-index> <document-name>+");
     }
 }
\ No newline at end of file
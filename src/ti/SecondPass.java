@@ -0,0 +1,211 @@
+package ti;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class runs the second pass of the indexer on a fork/join pool: it computes the IDF of every term, multiplies the
+ * weights of the postings by it, computes the norms of the documents and, optionally, builds the direct index.
+ * <p>
+ * The terms are split into one stripe per thread, that is, consecutive ranges of {@code termID}s with about the same
+ * number of postings. Each stripe adds the squared weights of its postings to its own array of partial norms, and
+ * counts how many postings each document has in it, so no two threads ever write the same memory. The partial norms
+ * are then added up per document, in stripe order, and the counts turn into the position where each stripe writes
+ * the postings of each document in its vector. This counting-sort layout allocates every document vector once, with
+ * its exact size, and leaves its postings sorted by {@code termID} without sorting them.
+ * <p>
+ * The result does not depend on the number of threads, except for the last bits of the norms, since their partial
+ * sums are grouped by stripe.
+ */
+public class SecondPass
+{
+    protected static final int DOCUMENTS_PER_TASK = 8192;
+
+    protected final Index ind;
+    protected final boolean buildDirectIndex;
+    protected final int stripes;
+    protected final int documents;
+    protected Tuple<Integer, Double>[] entries; // [termID] -> (termID, IDF)
+    protected int[] bounds;                     // stripe s covers termIDs [bounds[s], bounds[s + 1])
+    protected double[][] norms;                 // [stripe][docID] -> partial squared norm
+    protected int[][] positions;                // [stripe][docID] -> number of postings, then first position
+    protected PostingsList[] vectors;           // [docID] -> (termID, weight)+
+
+    /**
+     * Creates the second pass for the specified index.
+     *
+     * @param ind              the index after the first pass, with the term frequencies as weights.
+     * @param buildDirectIndex whether to build the direct index.
+     * @param threads          the number of threads that will run the pass.
+     */
+    public SecondPass(Index ind, boolean buildDirectIndex, int threads)
+    {
+        this.ind = ind;
+        this.buildDirectIndex = buildDirectIndex;
+        this.stripes = Math.max(1, Math.min(threads, ind.invertedIndex.size()));
+        this.documents = ind.documents.size();
+    }
+
+    /**
+     * Runs the pass on the specified pool, and leaves the IDFs in the vocabulary, the final weights in the inverted
+     * index, the norms in the documents and the direct index, or {@code null}, in the index.
+     *
+     * @param pool  the pool to run the pass on.
+     * @param stats the statistics to record the {@code secondPass.*} stages to, or {@code null}.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void run(ForkJoinPool pool, IndexingStats stats)
+    {
+        long start = System.nanoTime();
+        int terms = this.ind.invertedIndex.size();
+        this.entries = new Tuple[terms];
+        for (Tuple<Integer, Double> entry : this.ind.vocabulary.values())
+            this.entries[entry.item1] = entry;
+
+        // Stripes with about the same number of postings
+        long total = 0;
+        for (int termID = 0; termID < terms; termID++)
+            total += this.ind.invertedIndex.get(termID).size();
+        this.bounds = new int[this.stripes + 1];
+        long postings = 0;
+        int stripe = 1;
+        for (int termID = 0; termID < terms; termID++) {
+            while (stripe < this.stripes && postings >= total * stripe / this.stripes)
+                this.bounds[stripe++] = termID;
+            postings += this.ind.invertedIndex.get(termID).size();
+        }
+        while (stripe <= this.stripes)
+            this.bounds[stripe++] = terms;
+
+        this.norms = new double[this.stripes][];
+        this.positions = new int[this.stripes][];
+        this.vectors = this.buildDirectIndex ? new PostingsList[this.documents] : null;
+        pool.invoke(new RangeTask(0, this.stripes, 1, this::weightStripe));
+        start = IndexingStats.record(stats, "secondPass.weights", start);
+        pool.invoke(new RangeTask(0, this.documents, DOCUMENTS_PER_TASK, this::reduceDocument));
+        this.norms = null;
+        start = IndexingStats.record(stats, "secondPass.norms", start);
+
+        if (this.buildDirectIndex) {
+            pool.invoke(new RangeTask(0, this.stripes, 1, this::fillStripe));
+            this.ind.directIndex = new PostingsIndex(this.documents);
+            for (PostingsList vector : this.vectors)
+                this.ind.directIndex.add(vector);
+            IndexingStats.record(stats, "secondPass.direct", start);
+        } else {
+            this.ind.directIndex = null;
+        }
+        this.positions = null;
+        this.vectors = null;
+    }
+
+    /**
+     * Weights the postings of a stripe, and computes its partial norms and the number of postings of each document.
+     *
+     * @param stripe the stripe.
+     */
+    protected void weightStripe(int stripe)
+    {
+        double[] norms = new double[this.documents];
+        int[] counts = this.buildDirectIndex ? new int[this.documents] : null;
+        for (int termID = this.bounds[stripe]; termID < this.bounds[stripe + 1]; termID++) {
+            PostingsList postings = this.ind.invertedIndex.get(termID);
+            double idf = Index.idf(this.documents, postings.size());
+            if (this.entries[termID] != null)
+                this.entries[termID].item2 = idf;
+            for (int p = 0; p < postings.size(); p++) {
+                double weight = postings.weight(p) * idf;
+                postings.setWeight(p, weight);
+                norms[postings.id(p)] += weight * weight;
+                if (counts != null)
+                    counts[postings.id(p)]++;
+            }
+            postings.trimToSize();
+        }
+        this.norms[stripe] = norms;
+        this.positions[stripe] = counts;
+    }
+
+    /**
+     * Adds up the partial norms of a document, and allocates its vector with the position where each stripe starts
+     * writing in it.
+     *
+     * @param docID the document.
+     */
+    protected void reduceDocument(int docID)
+    {
+        double norm = 0;
+        for (int stripe = 0; stripe < this.stripes; stripe++)
+            norm += this.norms[stripe][docID];
+        this.ind.documents.get(docID).item2 = Math.sqrt(norm);
+
+        if (this.buildDirectIndex) {
+            int size = 0;
+            for (int stripe = 0; stripe < this.stripes; stripe++) {
+                int count = this.positions[stripe][docID];
+                this.positions[stripe][docID] = size;
+                size += count;
+            }
+            this.vectors[docID] = PostingsList.ofSize(size);
+        }
+    }
+
+    /**
+     * Writes the postings of a stripe into the vectors of the direct index.
+     *
+     * @param stripe the stripe.
+     */
+    protected void fillStripe(int stripe)
+    {
+        int[] positions = this.positions[stripe];
+        for (int termID = this.bounds[stripe]; termID < this.bounds[stripe + 1]; termID++) {
+            PostingsList postings = this.ind.invertedIndex.get(termID);
+            for (int p = 0; p < postings.size(); p++) {
+                int docID = postings.id(p);
+                this.vectors[docID].set(positions[docID]++, termID, postings.weight(p));
+            }
+        }
+    }
+
+    /**
+     * The work done for each element of a range.
+     */
+    protected interface RangeBody
+    {
+        void apply(int i);
+    }
+
+    /**
+     * A task that splits a range in halves until it has at most {@code grain} elements, and then processes them.
+     */
+    protected static class RangeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        protected final int from;
+        protected final int to;
+        protected final int grain;
+        protected final RangeBody body;
+
+        protected RangeTask(int from, int to, int grain, RangeBody body)
+        {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.to - this.from <= this.grain) {
+                for (int i = this.from; i < this.to; i++)
+                    this.body.apply(i);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new RangeTask(this.from, middle, this.grain, this.body),
+                    new RangeTask(middle, this.to, this.grain, this.body));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package ti;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class merges consecutive segments of a {@link SegmentedIndex} into a single new segment.
+ * <p>
+ * The merge streams: the sorted vocabularies of the segments are merged term by term, and the postings lists of each
+ * term are concatenated and written straight to the new index file, so only one list and the document norms are held
+ * in memory at a time. Weights are rescaled from the IDF of each source segment to the IDF of the merged segment,
+ * which is then exactly as if it had been indexed in one run. The direct index is merged only if every source
+ * segment has one. Documents keep their order, so the merged segment can replace the source ones in the commit.
+ * <p>
+ * Deleted documents are purged: they get no {@code docID} in the merged segment, and terms that only appear in
+ * deleted documents are dropped.
+ */
+public class SegmentMerger
+{
+    protected final String path;
+    protected final List<String> names;
+    protected int[][] docMaps; // [segment][docID] -> docID in the merged segment, or -1 if it is deleted
+
+    /**
+     * Creates a new merger for the specified segments.
+     *
+     * @param path  the index directory.
+     * @param names the names of the consecutive segments to merge, in order.
+     */
+    public SegmentMerger(String path, List<String> names)
+    {
+        this.path = path;
+        this.names = names;
+    }
+
+    /**
+     * Returns the {@code docID} that a document of a source segment got in the merged segment.
+     *
+     * @param segment the position of the source segment.
+     * @param docID   the ID of the document in the source segment.
+     * @return the ID of the document in the merged segment, or {@code -1} if it was deleted when it was merged.
+     */
+    public int mergedDocID(int segment, int docID)
+    {
+        return this.docMaps[segment][docID];
+    }
+
+    /**
+     * Returns the number of documents of a source segment, deleted or not, when it was merged.
+     *
+     * @param segment the position of the source segment.
+     * @return the number of documents.
+     */
+    public int documents(int segment)
+    {
+        return this.docMaps[segment].length;
+    }
+
+    /**
+     * Merges the segments into the specified directory. The source segments are left untouched.
+     *
+     * @param target the empty directory of the new segment.
+     * @return the number of documents in the merged segment.
+     * @throws IOException if an error occurs while reading the segments or writing the new one.
+     */
+    public int merge(File target) throws IOException
+    {
+        int count = this.names.size();
+        ArrayList<Index> segments = new ArrayList<>(count);
+        try {
+            this.docMaps = new int[count][];
+            int documents = 0;
+            int maxTerms = 0;
+            for (int s = 0; s < count; s++) {
+                Index segment = SegmentedIndex.openSegment(Paths.get(this.path, this.names.get(s)).toString());
+                segments.add(segment);
+                this.docMaps[s] = new int[segment.documents.size()];
+                for (int docID = 0; docID < segment.documents.size(); docID++)
+                    this.docMaps[s][docID] = segment.isDeleted(docID) ? -1 : documents++;
+                maxTerms += segment.vocabulary.size();
+            }
+
+            boolean stemmed = SegmentedIndex.checkStemming(this.names, segments);
+
+            File tmp = new File(target, Index.INDEX_FILE + ".tmp");
+            IndexFileWriter writer = new IndexFileWriter(tmp);
+            Index.writeAnalysis(writer, stemmed);
+
+            // Vocabulary: terms that only appear in deleted documents are left out
+            int live = documents;
+            double[] idfs = new double[maxTerms];
+            TermDictionary.Writer dictionary = new TermDictionary.Writer(writer.beginSection("vocabulary"));
+            SegmentedIndex.TermStatistics statistics = (termID, termIDs, localIdfs) -> {
+                int df = 0;
+                for (int s = 0; s < count; s++) {
+                    if (termIDs[s] >= 0)
+                        df += this.liveDocuments(segments.get(s), termIDs[s]);
+                }
+                if (df == 0)
+                    return Double.NaN;
+                idfs[termID] = Index.idf(live, df);
+                return idfs[termID];
+            };
+            int[][] localToMerged = SegmentedIndex.mergeVocabularies(segments, dictionary, statistics);
+            int terms = dictionary.size();
+
+            // Inverted: the terms of each segment are visited in merged order
+            long[][] segmentTerms = new long[count][];
+            int[] next = new int[count];
+            double[][] factors = new double[count][];
+            for (int s = 0; s < count; s++) {
+                segmentTerms[s] = SegmentedIndex.sortByMerged(localToMerged[s]);
+                factors[s] = new double[localToMerged[s].length];
+            }
+            double[] norms = new double[documents];
+            PostingsIndex.Writer inverted = new PostingsIndex.Writer(writer.beginSection("inverted"), terms);
+            for (int termID = 0; termID < terms; termID++) {
+                PostingsList list = new PostingsList();
+                for (int s = 0; s < count; s++) {
+                    if (next[s] == segmentTerms[s].length || (int) (segmentTerms[s][next[s]] >>> 32) != termID)
+                        continue;
+                    int localID = (int) segmentTerms[s][next[s]++];
+                    PostingsCursor postings = segments.get(s).invertedIndex.cursor(localID);
+                    double factor = idfs[termID] / Index.idf(segments.get(s).documents.size(), postings.size());
+                    factors[s][localID] = factor;
+                    while (postings.next()) {
+                        int docID = this.docMaps[s][postings.id()];
+                        if (docID < 0)
+                            continue;
+                        double weight = postings.weight() * factor;
+                        list.add(docID, weight);
+                        norms[docID] += weight * weight;
+                    }
+                }
+                inverted.add(list);
+            }
+            inverted.finish();
+
+            // Documents
+            DataOutputStream dos = writer.beginSection("documents");
+            dos.writeInt(documents);
+            for (int s = 0; s < count; s++) {
+                for (int docID = 0; docID < segments.get(s).documents.size(); docID++) {
+                    if (this.docMaps[s][docID] < 0)
+                        continue;
+                    dos.writeUTF(segments.get(s).documents.get(docID).item1);
+                    dos.writeDouble(Math.sqrt(norms[this.docMaps[s][docID]]));
+                }
+            }
+
+            // Direct
+            boolean direct = true;
+            for (Index segment : segments)
+                direct &= segment.directIndex != null;
+            if (direct) {
+                PostingsIndex.Writer directWriter = new PostingsIndex.Writer(writer.beginSection("direct"), documents);
+                for (int s = 0; s < count; s++) {
+                    PostingsIndex local = segments.get(s).directIndex;
+                    for (int docID = 0; docID < local.size(); docID++) {
+                        if (this.docMaps[s][docID] < 0)
+                            continue;
+                        PostingsCursor postings = local.cursor(docID);
+                        PostingsList vector = new PostingsList(postings.size());
+                        while (postings.next()) {
+                            vector.add(localToMerged[s][postings.id()],
+                                    postings.weight() * factors[s][postings.id()]);
+                        }
+                        vector.sortById();
+                        directWriter.add(vector);
+                    }
+                }
+                directWriter.finish();
+            }
+            writer.close();
+            Files.move(tmp.toPath(), new File(target, Index.INDEX_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+            // Cached documents
+            DocumentStore store = new DocumentStore(target);
+            try {
+                for (int s = 0; s < count; s++) {
+                    for (int docID = 0; docID < segments.get(s).documents.size(); docID++) {
+                        if (this.docMaps[s][docID] >= 0)
+                            store.append(this.docMaps[s][docID], segments.get(s).readCachedDocument(docID));
+                    }
+                }
+            } catch (IOException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException("Cannot read the cached documents of the segments.", ex);
+            } finally {
+                store.close();
+            }
+            return documents;
+        } finally {
+            for (Index segment : segments)
+                segment.close();
+        }
+    }
+
+    /**
+     * Returns the number of documents of a segment that contain a term and are not deleted.
+     *
+     * @param segment the segment.
+     * @param termID  the ID of the term in the segment.
+     * @return the number of live documents that contain the term.
+     */
+    protected int liveDocuments(Index segment, int termID)
+    {
+        PostingsCursor postings = segment.invertedIndex.cursor(termID);
+        if (segment.deleted == null)
+            return postings.size();
+        int df = 0;
+        while (postings.next()) {
+            if (!segment.isDeleted(postings.id()))
+                df++;
+        }
+        return df;
+    }
+}
@@ -0,0 +1,726 @@
+package ti;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class represents an index made of immutable segments, each one a complete {@link Index} in its own
+ * subdirectory, so that new documents can be indexed without rebuilding the existing ones.
+ * <p>
+ * The {@code segments} file in the index directory lists the live segments and holds the collection-level statistics
+ * computed when they were {@link #commit committed}: the global vocabulary, where the {@code termID} of a term is its
+ * rank in sorted order, the global IDF of each term, the norm of each document, and for each segment the global
+ * {@code termID} of each of its terms. Global {@code docID}s number the documents of each segment one after the other.
+ * <p>
+ * A segment stores its weights as {@code tf * idf} with its own IDF, so postings are rescaled by
+ * {@code globalIDF / segmentIDF} as they are read. Queries thus score the documents of all segments as if they were
+ * in a single index. Document norms are computed with the global IDFs by every commit, for the documents of all
+ * segments, since adding a segment changes the IDF of the terms it shares with the others.
+ * <p>
+ * Deleted documents are marked in a bit set in their segment. Like the rest of the documents in the segment, they
+ * count for the statistics until the segment is merged.
+ */
+public class SegmentedIndex extends Index
+{
+    /**
+     * The name of the commit file in the index directory.
+     */
+    public static final String SEGMENTS_FILE = "segments";
+    /**
+     * The prefix of the segment subdirectories.
+     */
+    public static final String SEGMENT_PREFIX = "seg_";
+
+    protected ArrayList<String> segmentNames;
+    protected ArrayList<Index> segments;
+    protected int[] docBases;            // [segment] -> first global docID, plus the number of documents at the end
+    protected DoubleBuffer idfs;         // [termID] -> IDF
+    protected IntBuffer[] localToGlobal; // [segment][termID in the segment] -> termID
+    protected long[][] segmentTerms;     // [segment] -> (termID << 32 | termID in the segment)+, sorted
+
+    /**
+     * Creates a new segmented index to be loaded from the specified directory.
+     * @param path the directory of the index.
+     * @param loadMode how the postings of each segment are accessed after {@link #load}.
+     */
+    public SegmentedIndex(String path, LoadMode loadMode)
+    {
+        super(path, loadMode);
+        this.segmentNames = new ArrayList<>();
+        this.segments = new ArrayList<>();
+        this.docBases = new int[1];
+        this.directIndex = null;
+    }
+
+    /**
+     * Checks whether the specified directory holds a segmented index.
+     * @param path the index directory.
+     * @return {@code true} if the directory has a {@code segments} file.
+     */
+    public static boolean isSegmented(String path)
+    {
+        return new File(path, SEGMENTS_FILE).exists();
+    }
+
+    /**
+     * Loads the commit file and every segment it lists.
+     * @throws Exception if an error occurs while loading the index.
+     */
+    @Override
+    public void load() throws Exception
+    {
+        IndexFileReader reader = new IndexFileReader(new File(this.path, SEGMENTS_FILE));
+        try {
+            // Segments
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(reader.read("segments").array()));
+            int count = dis.readInt();
+            this.docBases = new int[count + 1];
+            for (int s = 0; s < count; s++) {
+                String name = dis.readUTF();
+                int documents = dis.readInt();
+                Index segment = new Index(Paths.get(this.path, name).toString(), this.loadMode);
+                segment.postingsCacheBytes = this.postingsCacheBytes / Math.max(count, 1);
+                segment.documentCacheBytes = 0;
+                this.segmentNames.add(name);
+                this.segments.add(segment);
+                segment.load();
+                if (segment.documents.size() != documents)
+                    throw new IOException("Segment " + name + " does not match the commit in " + this.path + ".");
+                this.docBases[s + 1] = this.docBases[s] + documents;
+            }
+            this.stemmed = checkStemming(this.segmentNames, this.segments);
+            // Vocabulary
+            this.vocabulary = new TermDictionary(this.loadSection(reader, "vocabulary"));
+            this.idfs = this.loadSection(reader, "idf").asDoubleBuffer();
+            this.localToGlobal = new IntBuffer[count];
+            this.segmentTerms = new long[count][];
+            for (int s = 0; s < count; s++) {
+                this.localToGlobal[s] = this.loadSection(reader, "global." + s).asIntBuffer();
+                int[] map = new int[this.localToGlobal[s].limit()];
+                this.localToGlobal[s].duplicate().get(map);
+                this.segmentTerms[s] = sortByMerged(map);
+            }
+            // Documents
+            DoubleBuffer norms = this.loadSection(reader, "norms").asDoubleBuffer();
+            this.documents = new ArrayList<>(this.docBases[count]);
+            this.deleted = null;
+            for (int s = 0; s < count; s++) {
+                for (Tuple<String, Double> doc : this.segments.get(s).documents)
+                    this.documents.add(new Tuple<>(doc.item1, norms.get(this.documents.size())));
+                BitSet deleted = this.segments.get(s).deleted;
+                for (int docID = deleted == null ? -1 : deleted.nextSetBit(0); docID >= 0; docID = deleted.nextSetBit(docID + 1))
+                    super.markDeleted(this.docBases[s] + docID);
+            }
+            // Inverted
+            this.invertedIndex = new SegmentedPostingsIndex(this);
+            this.directIndex = null;
+        } catch (Exception ex) {
+            this.close();
+            throw ex;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the position of the segment that holds the specified document.
+     * @param docID the global ID of the document.
+     * @return the position of the segment.
+     */
+    protected int segmentOf(int docID)
+    {
+        int pos = Arrays.binarySearch(this.docBases, docID);
+        if (pos < 0)
+            return -pos - 2;
+        while (pos + 1 < this.docBases.length && this.docBases[pos + 1] == docID)
+            pos++; // skip empty segments
+        return pos;
+    }
+
+    /**
+     * Returns the {@code termID} that a term has in a segment.
+     * @param segment the position of the segment.
+     * @param termID the global ID of the term.
+     * @return the ID of the term in the segment, or {@code -1} if the segment does not have the term.
+     */
+    protected int localTermID(int segment, int termID)
+    {
+        long[] terms = this.segmentTerms[segment];
+        int pos = Arrays.binarySearch(terms, (long) termID << 32);
+        if (pos < 0)
+            pos = -pos - 1;
+        return pos < terms.length && (int) (terms[pos] >>> 32) == termID ? (int) terms[pos] : -1;
+    }
+
+    /**
+     * Returns the factor that rescales the weights of a term in a segment to the global IDF.
+     * @param segment the position of the segment.
+     * @param termID the global ID of the term.
+     * @param df the number of documents of the segment that contain the term.
+     * @return the rescaling factor.
+     */
+    protected double rescale(int segment, int termID, int df)
+    {
+        return this.idfs.get(termID) / Index.idf(this.segments.get(segment).documents.size(), df);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The deletions are read from the segments of the documents, which must all still be committed: a deletion saved
+     * in a segment that was merged away would be lost. Merges hold the same lock while they carry over the deletions
+     * of their source segments, so a segment that is being merged does not lose them either.
+     */
+    @Override
+    protected void reloadDeleted() throws IOException
+    {
+        if (!listSegments(this.path).containsAll(this.segmentNames))
+            throw new IOException("The segments of " + this.path + " changed since the index was loaded; reload it.");
+        for (int s = 0; s < this.segments.size(); s++) {
+            Index segment = this.segments.get(s);
+            BitSet saved = readDeleted(new File(segment.path), segment.documents.size());
+            if (saved == null)
+                continue;
+            for (int docID = saved.nextSetBit(0); docID >= 0; docID = saved.nextSetBit(docID + 1)) {
+                if (!this.isDeleted(this.docBases[s] + docID))
+                    this.markDeleted(this.docBases[s] + docID);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void markDeleted(int docID)
+    {
+        super.markDeleted(docID);
+        int s = this.segmentOf(docID);
+        this.segments.get(s).markDeleted(docID - this.docBases[s]);
+    }
+
+    /**
+     * Saves the deleted documents of each segment.
+     * @throws IOException if an error occurs while writing the files.
+     */
+    @Override
+    protected void saveDeleted() throws IOException
+    {
+        for (Index segment : this.segments) {
+            if (segment.deleted != null)
+                segment.saveDeleted();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Tuple<String, String> readCachedDocument(int docID) throws Exception
+    {
+        int s = this.segmentOf(docID);
+        return this.segments.get(s).readCachedDocument(docID - this.docBases[s]);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The vectors are read from each segment and translated to global {@code termID}s and weights.
+     */
+    @Override
+    public PostingsList[] forwardVectors(int[] docIDs, DocumentProcessor docProcessor) throws IOException
+    {
+        PostingsList[] vectors = new PostingsList[docIDs.length];
+        for (int s = 0; s < this.segments.size(); s++) {
+            // Documents of this segment
+            int count = 0;
+            int[] positions = new int[docIDs.length];
+            int[] localIDs = new int[docIDs.length];
+            for (int i = 0; i < docIDs.length; i++) {
+                if (this.segmentOf(docIDs[i]) == s) {
+                    positions[count] = i;
+                    localIDs[count++] = docIDs[i] - this.docBases[s];
+                }
+            }
+            if (count == 0)
+                continue;
+
+            Index segment = this.segments.get(s);
+            PostingsList[] local = segment.forwardVectors(Arrays.copyOf(localIDs, count), docProcessor);
+            for (int i = 0; i < count; i++) {
+                PostingsList vector = new PostingsList(local[i].size());
+                for (int p = 0; p < local[i].size(); p++) {
+                    int termID = this.localToGlobal[s].get(local[i].id(p));
+                    int df = segment.invertedIndex.cursor(local[i].id(p)).size();
+                    vector.add(termID, local[i].weight(p) * this.rescale(s, termID, df));
+                }
+                vector.sortById();
+                vectors[positions[i]] = vector;
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Releases the files kept open by the segments.
+     * @throws IOException if an error occurs while closing the files.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        super.close();
+        for (Index segment : this.segments)
+            segment.close();
+    }
+
+    /**
+     * Returns the global IDF of a term, as computed by the last commit.
+     * @param termID the global {@code termID} of the term.
+     * @return the IDF of the term.
+     */
+    @Override
+    public double idf(int termID)
+    {
+        return this.idfs.get(termID);
+    }
+
+    /**
+     * Segments are immutable: new documents are added with {@link Indexer} in incremental mode.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void save(IndexingStats stats)
+    {
+        throw new UnsupportedOperationException("Segmented indexes are only written by committing segments.");
+    }
+
+    /**
+     * Prints statistics about the index and each of its segments to {@link System#err}.
+     */
+    @Override
+    public void printStatistics()
+    {
+        DecimalFormat df = new DecimalFormat("#.##");
+        System.err.println("  - Vocabulary: " + this.vocabulary.size() + " terms.");
+        System.err.println("  - Documents: " + this.documents.size() + " documents.");
+        if (this.deleted != null)
+            System.err.println("  - Deleted: " + this.deleted.cardinality() + " documents.");
+        System.err.println("  - Stemming: " + (this.stemmed ? "yes" : "no") + ".");
+        System.err.println("  - Segments: " + this.segments.size() + ".");
+        for (int s = 0; s < this.segments.size(); s++) {
+            File dir = Paths.get(this.path, this.segmentNames.get(s)).toFile();
+            long size = 0;
+            for (File file : dir.listFiles())
+                size += file.length();
+            BitSet deleted = this.segments.get(s).deleted;
+            System.err.println("    - " + this.segmentNames.get(s) + ": " + this.segments.get(s).documents.size()
+                    + " documents (" + (deleted == null ? 0 : deleted.cardinality()) + " deleted), "
+                    + this.segments.get(s).vocabulary.size() + " terms ("
+                    + df.format(size / 1024d / 1024d) + " MB).");
+        }
+    }
+
+    /**
+     * Returns the names of the committed segments in the specified index directory, in order.
+     * @param path the index directory.
+     * @return the names of the segments, or an empty list if the index is not segmented.
+     * @throws IOException if an error occurs while reading the commit file.
+     */
+    public static ArrayList<String> listSegments(String path) throws IOException
+    {
+        ArrayList<String> names = new ArrayList<>();
+        for (Tuple<String, Integer> segment : readCommit(path))
+            names.add(segment.item1);
+        return names;
+    }
+
+    /**
+     * Returns the committed segments in the specified index directory, in order.
+     * @param path the index directory.
+     * @return a {@link Tuple} with the name and number of documents of each segment, or an empty list if the index is
+     * not segmented.
+     * @throws IOException if an error occurs while reading the commit file.
+     */
+    public static ArrayList<Tuple<String, Integer>> readCommit(String path) throws IOException
+    {
+        ArrayList<Tuple<String, Integer>> segments = new ArrayList<>();
+        if (!isSegmented(path))
+            return segments;
+        IndexFileReader reader = new IndexFileReader(new File(path, SEGMENTS_FILE));
+        try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(reader.read("segments").array()));
+            int count = dis.readInt();
+            for (int s = 0; s < count; s++)
+                segments.add(new Tuple<>(dis.readUTF(), dis.readInt()));
+        } finally {
+            reader.close();
+        }
+        return segments;
+    }
+
+    /**
+     * Changes the list of committed segments and commits the result. Updates hold the {@link IndexLock} of the index,
+     * so concurrent changes, like adding a segment while others are merged in this or another process, do not
+     * overwrite each other.
+     * @param path the index directory.
+     * @param change the function that changes the list of segment names.
+     * @throws IOException if an error occurs while reading or writing the commit file.
+     */
+    public static void update(String path, UnaryOperator<List<String>> change) throws IOException
+    {
+        IndexLock lock = IndexLock.lock(path);
+        try {
+            commit(path, change.apply(listSegments(path)));
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Returns the directory for a new segment in the specified index directory.
+     * <p>
+     * If the directory holds a single index, it is first moved into a segment of its own and committed, so that the
+     * new segment is added next to it.
+     * @param path the index directory.
+     * @return the directory of the new segment, which is created empty.
+     * @throws IOException if an error occurs while preparing the index directory.
+     */
+    public static File newSegment(String path) throws IOException
+    {
+        IndexLock lock = IndexLock.lock(path);
+        try {
+            int next = 0;
+            for (File file : new File(path).listFiles()) {
+                String name = file.getName();
+                if (file.isDirectory() && name.matches(SEGMENT_PREFIX + "\\d+"))
+                    next = Math.max(next, Integer.parseInt(name.substring(SEGMENT_PREFIX.length())) + 1);
+            }
+
+            if (!isSegmented(path) && new File(path, INDEX_FILE).exists()) {
+                File first = new File(path, SEGMENT_PREFIX + next++);
+                if (!first.mkdir())
+                    throw new IOException("Cannot create segment " + first + ".");
+                for (File file : new File(path).listFiles()) {
+                    String name = file.getName();
+                    if (name.equals(INDEX_FILE) || name.startsWith("docstore") || name.matches("cache\\d+"))
+                        Files.move(file.toPath(), new File(first, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                commit(path, Arrays.asList(first.getName()));
+            } else if (!isSegmented(path) && new File(path, "vocabulary").exists()) {
+                throw new IOException("The index in " + path
+                        + " uses an older format; rebuild it before adding segments.");
+            }
+            File segment = new File(path, SEGMENT_PREFIX + next);
+            if (!segment.mkdir())
+                throw new IOException("Cannot create segment " + segment + ".");
+            return segment;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Removes the commit file and all segments from the specified index directory, once a single index has been
+     * saved in it.
+     * @param path the index directory.
+     * @throws IOException if an error occurs while deleting the files.
+     */
+    public static void removeSegments(String path) throws IOException
+    {
+        IndexLock lock = IndexLock.lock(path);
+        try {
+            Files.deleteIfExists(new File(path, SEGMENTS_FILE).toPath());
+            for (File file : new File(path).listFiles()) {
+                if (file.isDirectory() && file.getName().matches(SEGMENT_PREFIX + "\\d+"))
+                    delete(file);
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Deletes a segment directory and its files. The segment must not be committed.
+     * @param dir the segment directory.
+     * @throws IOException if an error occurs while deleting the files.
+     */
+    public static void delete(File dir) throws IOException
+    {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory())
+                delete(file);
+            else
+                Files.delete(file.toPath());
+        }
+        Files.delete(dir.toPath());
+    }
+
+    /**
+     * Commits the specified segments as the contents of the index.
+     * <p>
+     * It merges the vocabularies of the segments, computes the global IDF of each term and the norm of every document
+     * with them, and writes them to a temporary file that then replaces the {@code segments} file, so readers never
+     * see a partial commit. The document frequency of a term in a segment is recovered from its IDF there, so the
+     * postings are only read to compute the norms. It holds the {@link IndexLock} of the index.
+     * @param path the index directory.
+     * @param names the names of the segments, in order.
+     * @throws IOException if an error occurs while reading the segments or writing the commit file.
+     */
+    public static void commit(String path, List<String> names) throws IOException
+    {
+        IndexLock lock = IndexLock.lock(path);
+        try {
+            int count = names.size();
+            ArrayList<Index> segments = new ArrayList<>(count);
+            try {
+                int documents = 0;
+                int maxTerms = 0;
+                for (String name : names) {
+                    Index segment = openSegment(Paths.get(path, name).toString());
+                    segments.add(segment);
+                    documents += segment.documents.size();
+                    maxTerms += segment.vocabulary.size();
+                }
+                checkStemming(names, segments);
+
+                File tmp = new File(path, SEGMENTS_FILE + ".tmp");
+                IndexFileWriter writer = new IndexFileWriter(tmp);
+                // Segments
+                DataOutputStream dos = writer.beginSection("segments");
+                dos.writeInt(count);
+                for (int s = 0; s < count; s++) {
+                    dos.writeUTF(names.get(s));
+                    dos.writeInt(segments.get(s).documents.size());
+                }
+
+                // Vocabulary: merge the sorted dictionaries of the segments
+                int total = documents;
+                double[] idfs = new double[maxTerms];
+                TermDictionary.Writer dictionary = new TermDictionary.Writer(writer.beginSection("vocabulary"));
+                int[][] localToGlobal = mergeVocabularies(segments, dictionary, (termID, termIDs, localIdfs) -> {
+                    int df = 0;
+                    for (int s = 0; s < count; s++) {
+                        if (termIDs[s] >= 0)
+                            df += Index.df(segments.get(s).documents.size(), localIdfs[s]);
+                    }
+                    idfs[termID] = Index.idf(total, df);
+                    return idfs[termID];
+                });
+                dos = writer.beginSection("idf");
+                for (int termID = 0; termID < dictionary.size(); termID++)
+                    dos.writeDouble(idfs[termID]);
+                for (int s = 0; s < count; s++) {
+                    dos = writer.beginSection("global." + s);
+                    for (int termID : localToGlobal[s])
+                        dos.writeInt(termID);
+                }
+
+                // Norms: recompute those of all segments with the new global IDF
+                dos = writer.beginSection("norms");
+                for (int s = 0; s < count; s++) {
+                    for (double norm : computeNorms(segments.get(s), localToGlobal[s], idfs))
+                        dos.writeDouble(norm);
+                }
+                writer.close();
+                Files.move(tmp.toPath(), new File(path, SEGMENTS_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                for (Index segment : segments)
+                    segment.close();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Computes the norms of the documents of a segment with the global IDF of each term.
+     * @param segment the segment.
+     * @param localToGlobal the global {@code termID} of each term of the segment.
+     * @param idfs the global IDF of each term.
+     * @return the norm of each document of the segment.
+     */
+    protected static double[] computeNorms(Index segment, int[] localToGlobal, double[] idfs)
+    {
+        double[] norms = new double[segment.documents.size()];
+        for (int termID = 0; termID < segment.invertedIndex.size(); termID++) {
+            PostingsCursor postings = segment.invertedIndex.cursor(termID);
+            double factor = idfs[localToGlobal[termID]] / Index.idf(segment.documents.size(), postings.size());
+            while (postings.next()) {
+                double weight = postings.weight() * factor;
+                norms[postings.id()] += weight * weight;
+            }
+        }
+        for (int docID = 0; docID < norms.length; docID++)
+            norms[docID] = Math.sqrt(norms[docID]);
+        return norms;
+    }
+
+    /**
+     * Checks that the terms of all segments are stemmed the same way, since queries can only be processed one way.
+     * @param names the names of the segments.
+     * @param segments the loaded segments.
+     * @return whether the terms are stemmed, or {@code false} if there are no segments.
+     * @throws IOException if some segments are stemmed and others are not.
+     */
+    protected static boolean checkStemming(List<String> names, List<Index> segments) throws IOException
+    {
+        for (int s = 1; s < segments.size(); s++) {
+            if (segments.get(s).stemmed != segments.get(0).stemmed)
+                throw new IOException("Segment " + names.get(s) + " is " + (segments.get(s).stemmed ? "" : "not ")
+                        + "stemmed, unlike segment " + names.get(0) + ".");
+        }
+        return !segments.isEmpty() && segments.get(0).stemmed;
+    }
+
+    /**
+     * Opens and loads a single segment, with its postings mapped.
+     * @param path the directory of the segment.
+     * @return the loaded segment.
+     * @throws IOException if an error occurs while loading the segment.
+     */
+    protected static Index openSegment(String path) throws IOException
+    {
+        Index segment = new Index(path, LoadMode.MAPPED);
+        try {
+            segment.load();
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException("Cannot load segment " + path + ".", ex);
+        }
+        if (!(segment.vocabulary instanceof TermDictionary))
+            throw new IOException("Segment " + path + " uses an older format.");
+        return segment;
+    }
+
+    /**
+     * Merges the sorted vocabularies of the specified segments term by term, and writes the merged vocabulary, where
+     * the {@code termID} of a term is its rank in sorted order.
+     * @param segments the segments, with their vocabularies loaded as {@link TermDictionary}s.
+     * @param dictionary the writer of the merged vocabulary, which is finished when the merge ends.
+     * @param statistics the function that gives the IDF of each merged term.
+     * @return the merged {@code termID} of each term of each segment, {@code [segment][termID in the segment]}, or
+     * {@code -1} for terms left out.
+     * @throws IOException if an error occurs while writing the merged vocabulary.
+     */
+    protected static int[][] mergeVocabularies(List<Index> segments, TermDictionary.Writer dictionary,
+            TermStatistics statistics) throws IOException
+    {
+        int count = segments.size();
+        int[][] localToMerged = new int[count][];
+        PriorityQueue<TermHead> heads = new PriorityQueue<>();
+        for (int s = 0; s < count; s++) {
+            Index segment = segments.get(s);
+            localToMerged[s] = new int[segment.vocabulary.size()];
+            Arrays.fill(localToMerged[s], -1);
+            TermHead head = new TermHead(s, ((TermDictionary) segment.vocabulary).cursor());
+            if (head.advance())
+                heads.add(head);
+        }
+        int[] termIDs = new int[count];
+        double[] idfs = new double[count];
+        while (!heads.isEmpty()) {
+            byte[] term = heads.peek().term;
+            Arrays.fill(termIDs, -1);
+            while (!heads.isEmpty() && Arrays.equals(heads.peek().term, term)) {
+                TermHead head = heads.poll();
+                termIDs[head.segment] = head.cursor.termID();
+                idfs[head.segment] = head.cursor.idf();
+                if (head.advance())
+                    heads.add(head);
+            }
+            int merged = dictionary.size();
+            double idf = statistics.idf(merged, termIDs, idfs);
+            if (Double.isNaN(idf))
+                continue;
+            for (int s = 0; s < count; s++) {
+                if (termIDs[s] >= 0)
+                    localToMerged[s][termIDs[s]] = merged;
+            }
+            dictionary.add(term, merged, idf);
+        }
+        dictionary.finish();
+        return localToMerged;
+    }
+
+    /**
+     * Sorts the terms of a segment by the {@code termID} they got in a merged vocabulary.
+     * @param localToMerged the merged {@code termID} of each term of the segment, or {@code -1} for terms left out.
+     * @return {@code (merged termID << 32 | termID in the segment)+} for the terms with a merged {@code termID},
+     * sorted.
+     */
+    protected static long[] sortByMerged(int[] localToMerged)
+    {
+        long[] terms = new long[localToMerged.length];
+        int count = 0;
+        for (int termID = 0; termID < localToMerged.length; termID++) {
+            if (localToMerged[termID] >= 0)
+                terms[count++] = (long) localToMerged[termID] << 32 | termID;
+        }
+        terms = Arrays.copyOf(terms, count);
+        Arrays.sort(terms);
+        return terms;
+    }
+
+    /**
+     * Gives the statistics of each term while vocabularies are merged.
+     */
+    protected interface TermStatistics
+    {
+        /**
+         * Returns the IDF of a term of the merged vocabulary.
+         * @param termID the {@code termID} that the term gets in the merged vocabulary.
+         * @param termIDs the {@code termID} of the term in each segment, or {@code -1} if the segment does not have it.
+         * @param idfs the IDF of the term in each segment that has it.
+         * @return the IDF of the term, or {@code NaN} to leave it out of the merged vocabulary.
+         */
+        double idf(int termID, int[] termIDs, double[] idfs);
+    }
+
+    /**
+     * The current term of a segment while merging vocabularies, ordered by its UTF-8 bytes and then by segment.
+     */
+    protected static class TermHead implements Comparable<TermHead>
+    {
+        protected final int segment;
+        protected final TermDictionary.TermCursor cursor;
+        protected byte[] term;
+
+        protected TermHead(int segment, TermDictionary.TermCursor cursor)
+        {
+            this.segment = segment;
+            this.cursor = cursor;
+        }
+
+        protected boolean advance()
+        {
+            if (!this.cursor.next())
+                return false;
+            this.term = this.cursor.term();
+            return true;
+        }
+
+        @Override
+        public int compareTo(TermHead other)
+        {
+            int cmp = Arrays.compareUnsigned(this.term, other.term);
+            return cmp != 0 ? cmp : Integer.compare(this.segment, other.segment);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ti;
+
+/**
+ * The inverted index of a {@link SegmentedIndex}.
+ * <p>
+ * The postings list of a global {@code termID} is the concatenation of the lists of that term in each segment, with
+ * the {@code docID}s shifted to global {@code docID}s and the weights rescaled to the global IDF. Lists are never
+ * copied: a cursor reads the postings of each segment in place, one segment after the other.
+ */
+public class SegmentedPostingsIndex extends PostingsIndex
+{
+    protected final SegmentedIndex index;
+
+    /**
+     * Creates the inverted index over the segments of the given index.
+     *
+     * @param index the segmented index.
+     */
+    public SegmentedPostingsIndex(SegmentedIndex index)
+    {
+        super(0);
+        this.index = index;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The list is built from the postings of every segment.
+     */
+    @Override
+    public PostingsList get(int i)
+    {
+        PostingsCursor postings = this.cursor(i);
+        PostingsList list = new PostingsList(postings.size());
+        while (postings.next())
+            list.add(postings.id(), postings.weight());
+        return list;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PostingsCursor cursor(int i)
+    {
+        return new SegmentsCursor(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.index.idfs.limit();
+    }
+
+    /**
+     * Segmented indexes are read-only.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void add(PostingsList list)
+    {
+        throw new UnsupportedOperationException("Segmented postings are read-only.");
+    }
+
+    /**
+     * A cursor over the postings of a term in every segment.
+     */
+    protected class SegmentsCursor implements PostingsCursor
+    {
+        protected final PostingsCursor[] cursors;
+        protected final int[] docBases;
+        protected final double[] factors;
+        protected int count;
+        protected int current;
+        protected int size;
+
+        protected SegmentsCursor(int termID)
+        {
+            SegmentedIndex index = SegmentedPostingsIndex.this.index;
+            int segments = index.segments.size();
+            this.cursors = new PostingsCursor[segments];
+            this.docBases = new int[segments];
+            this.factors = new double[segments];
+            for (int s = 0; s < segments; s++) {
+                int localID = index.localTermID(s, termID);
+                if (localID < 0)
+                    continue;
+                PostingsCursor cursor = index.segments.get(s).invertedIndex.cursor(localID);
+                this.cursors[this.count] = cursor;
+                this.docBases[this.count] = index.docBases[s];
+                this.factors[this.count] = index.rescale(s, termID, cursor.size());
+                this.size += cursor.size();
+                this.count++;
+            }
+        }
+
+        @Override
+        public boolean next()
+        {
+            while (this.current < this.count) {
+                if (this.cursors[this.current].next())
+                    return true;
+                this.current++;
+            }
+            return false;
+        }
+
+        @Override
+        public int id()
+        {
+            return this.docBases[this.current] + this.cursors[this.current].id();
+        }
+
+        @Override
+        public double weight()
+        {
+            return this.cursors[this.current].weight() * this.factors[this.current];
+        }
+
+        @Override
+        public int size()
+        {
+            return this.size;
+        }
+    }
+}
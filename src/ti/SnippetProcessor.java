@@ -4,6 +4,10 @@ import java.util.ArrayList;
 
 public class SnippetProcessor{
 
+		// Caracteres que quita normalize, aplicados con una tabla en lugar de replaceAll (ver Tokenizer)
+		protected static final String REMOVED_CHARS = "[/(){}Â¡!Â¿?â€¦.,:;+*=&|-â€“_'â€œâ€�\\[\\]\\-]";
+		protected final Tokenizer normalizer = new Tokenizer(REMOVED_CHARS);
+
 		public SnippetProcessor(){
 		}
 
@@ -19,8 +23,10 @@ public class SnippetProcessor{
 			for(int i=0; i<body.size(); i++){
 				hits.add(new ArrayList<>());
 				for(int j=0; j<body.get(i).size(); j++){
+					// normalizar cada palabra una sola vez, no una vez por cada palabra de la consulta
+					String term = normalize(body.get(i).get(j));
 					for(String s : query){
-						if(this.isSimilar(s, normalize(body.get(i).get(j)))){
+						if(this.isSimilar(s, term)){
 							hits.get(i).add(j);
 						}
 					}
@@ -142,6 +148,6 @@ public class SnippetProcessor{
 		protected String normalize(String text)
 		{
 			//P3
-			return text.toLowerCase().replaceAll("[/(){}Â¡!Â¿?â€¦.,:;+*=&|-â€“_'â€œâ€�\\[\\]\\-]", "");
+			return this.normalizer.normalize(text);
 		}
 }
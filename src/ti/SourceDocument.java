@@ -0,0 +1,86 @@
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class represents a raw document given by a {@link DocumentSource}: its name in the index, where it comes from,
+ * and its content, which is either a file, read when it is indexed, or bytes extracted from an archive.
+ */
+public class SourceDocument
+{
+    /**
+     * The name of the document in the index.
+     */
+    public final String name;
+    /**
+     * Where the document comes from, such as a file or an entry of an archive, for messages.
+     */
+    public final String origin;
+    protected final File file;
+    protected final byte[] content;
+
+    /**
+     * Creates a new document backed by a file.
+     *
+     * @param name the name of the document in the index.
+     * @param file the file with the content of the document.
+     */
+    public SourceDocument(String name, File file)
+    {
+        this.name = name;
+        this.origin = file.getPath();
+        this.file = file;
+        this.content = null;
+    }
+
+    /**
+     * Creates a new document with its content in memory.
+     *
+     * @param name    the name of the document in the index.
+     * @param origin  where the document comes from.
+     * @param content the raw content of the document.
+     */
+    public SourceDocument(String name, String origin, byte[] content)
+    {
+        this.name = name;
+        this.origin = origin;
+        this.file = null;
+        this.content = content;
+    }
+
+    /**
+     * Returns the size of the raw content of the document.
+     *
+     * @return the size in bytes.
+     */
+    public long length()
+    {
+        return this.file != null ? this.file.length() : this.content.length;
+    }
+
+    /**
+     * Reads and decodes the content of the document.
+     *
+     * @param reader the reader to use, with its reusable buffers.
+     * @return the text of the document.
+     * @throws IOException if an error occurs while reading the document.
+     */
+    public String text(DocumentReader reader) throws IOException
+    {
+        return this.file != null ? reader.read(this.file) : reader.decode(this.content);
+    }
+
+    /**
+     * Returns the name of a document stored in a file or archive entry with the specified name: the part of the name
+     * before its first dot, as the indexer has always done.
+     *
+     * @param fileName the name of the file or entry, without its directory.
+     * @return the name of the document.
+     */
+    public static String nameOf(String fileName)
+    {
+        int dot = fileName.indexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+}
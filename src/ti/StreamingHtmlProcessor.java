@@ -0,0 +1,482 @@
+package ti;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jsoup.parser.Parser;
+
+/**
+ * A processor to extract terms from HTML documents that, unlike {@link HtmlProcessor}, does not build a DOM tree to get
+ * the title and body of a document. Instead, {@link #parse} scans the HTML once, tag by tag, and writes the text of
+ * the title and body straight to their buffers, skipping markup, comments and the contents of {@code script} and
+ * {@code style} elements. Besides the text itself, it only keeps a few flags, so it takes constant memory whatever the
+ * size and nesting of the document.
+ * <p>
+ * The text is meant to be the same that Jsoup gives for {@code doc.title()} and {@code doc.select("body").text()}:
+ * character references are decoded by Jsoup itself, whitespace is collapsed except within {@code pre} and
+ * {@code textarea} elements, block elements are separated with a space, and the body starts where Jsoup would start
+ * it, at the first text or element that does not belong in the head. CDATA sections are text kept as it is, markup
+ * and whitespace included, since Jsoup parses them as such even outside of SVG and MathML. Malformed markup that
+ * makes Jsoup move text around, such as text directly within a {@code table}, is not repaired, so the terms of such a
+ * document are the same but may come in a different order. Terms are processed like in {@link HtmlProcessor}.
+ */
+public class StreamingHtmlProcessor extends HtmlProcessor
+{
+    /**
+     * The block elements, which Jsoup separates from the text around them.
+     */
+    protected static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList("html", "head", "body", "frameset",
+            "script", "noscript", "style", "meta", "link", "title", "frame", "noframes", "section", "nav", "aside",
+            "hgroup", "header", "footer", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "div",
+            "blockquote", "hr", "address", "figure", "figcaption", "form", "fieldset", "ins", "del", "dl", "dt", "dd",
+            "li", "table", "caption", "thead", "tfoot", "tbody", "colgroup", "col", "tr", "th", "td", "video", "audio",
+            "canvas", "details", "menu", "plaintext", "template", "article", "main", "svg", "math", "center", "dir",
+            "applet", "marquee", "listing"));
+    /**
+     * The void elements, which have no contents nor end tag.
+     */
+    protected static final Set<String> VOID_TAGS = new HashSet<>(Arrays.asList("meta", "link", "base", "frame", "img",
+            "br", "wbr", "embed", "hr", "input", "keygen", "col", "command", "device", "area", "basefont", "bgsound",
+            "menuitem", "param", "source", "track"));
+    /**
+     * The elements that may come before the body without starting it.
+     */
+    protected static final Set<String> HEAD_TAGS = new HashSet<>(Arrays.asList("html", "head", "base", "basefont",
+            "bgsound", "command", "link", "meta", "title", "noframes", "style", "script", "noscript", "template"));
+
+    /**
+     * Creates a new streaming HTML processor that does not stem terms.
+     *
+     * @param pathToStopWords the path to the file with stopwords, or {@code null} if stopwords are not filtered.
+     * @throws IOException if an error occurs while reading stopwords.
+     */
+    public StreamingHtmlProcessor(File pathToStopWords) throws IOException
+    {
+        super(pathToStopWords);
+    }
+
+    /**
+     * Creates a new streaming HTML processor.
+     *
+     * @param pathToStopWords the path to the file with stopwords, or {@code null} if stopwords are not filtered.
+     * @param stemming        whether to stem terms with the Porter stemmer.
+     * @throws IOException if an error occurs while reading stopwords.
+     */
+    public StreamingHtmlProcessor(File pathToStopWords, boolean stemming) throws IOException
+    {
+        super(pathToStopWords, stemming);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<String, String> parse(String html)
+    {
+        return new Scanner(html).scan();
+    }
+
+    /**
+     * The state of the scan of a document.
+     */
+    protected static class Scanner
+    {
+        protected final String html;
+        protected final int end;
+        protected int position;
+
+        protected String title;                           // the first title in the head, or null until found
+        protected final StringBuilder body = new StringBuilder();
+        protected boolean inBody;                         // whether the body has started
+        protected int preformatted;                       // the number of open pre elements
+        protected boolean afterBlock;                     // whether a block element has just ended
+
+        protected Scanner(String html)
+        {
+            this.html = html;
+            this.end = html.length();
+        }
+
+        /**
+         * Scans the document.
+         *
+         * @return a tuple with the title and body text.
+         */
+        protected Tuple<String, String> scan()
+        {
+            int text = 0; // the start of the pending text
+            while (this.position < this.end) {
+                int lt = this.html.indexOf('<', this.position);
+                if (lt < 0)
+                    break;
+                this.position = lt;
+                if (this.isMarkup()) {
+                    this.text(text, lt);
+                    this.markup();
+                    text = this.position;
+                } else
+                    this.position++; // a '<' that is just text
+            }
+            this.text(text, this.end);
+            return new Tuple<>(this.title == null ? "" : this.title, this.body.toString().trim());
+        }
+
+        /**
+         * Checks whether the '<' at the current position starts markup, as opposed to being text.
+         */
+        protected boolean isMarkup()
+        {
+            if (this.position + 1 >= this.end)
+                return false;
+            char c = this.html.charAt(this.position + 1);
+            if (c == '!' || c == '?' || isLetter(c))
+                return true;
+            return c == '/' && this.position + 2 < this.end;
+        }
+
+        /**
+         * Handles the markup at the current position, and moves past it.
+         */
+        protected void markup()
+        {
+            char c = this.html.charAt(this.position + 1);
+            if (c == '!' && this.html.startsWith("<!--", this.position)) {
+                int close = this.html.indexOf("-->", this.position + 2);
+                if (this.html.startsWith("<!-->", this.position))
+                    close = this.position + 2;
+                else if (this.html.startsWith("<!--->", this.position))
+                    close = this.position + 3;
+                this.position = close < 0 ? this.end : close + 3;
+                this.afterBlock = false;
+            } else if (c == '!' && this.html.startsWith("<![CDATA[", this.position)) {
+                int close = this.html.indexOf("]]>", this.position);
+                String text = this.html.substring(this.position + 9, close < 0 ? this.end : close);
+                this.position = close < 0 ? this.end : close + 3;
+                this.preformatted++; // kept as it is
+                this.append(text);
+                this.preformatted--;
+            } else if (c == '!' || c == '?') {
+                this.skipPast('>');
+                this.afterBlock = false;
+            } else if (c == '/') {
+                c = this.html.charAt(this.position + 2);
+                if (c == '>')
+                    this.position += 3;
+                else if (!isLetter(c))
+                    this.skipPast('>');
+                else {
+                    this.position += 2;
+                    String name = this.tagName();
+                    this.skipAttributes();
+                    this.endTag(name);
+                }
+            } else {
+                this.position++;
+                String name = this.tagName();
+                boolean selfClosing = this.skipAttributes();
+                this.startTag(name, selfClosing);
+            }
+        }
+
+        /**
+         * Handles a start tag, whose attributes have already been skipped.
+         */
+        protected void startTag(String name, boolean selfClosing)
+        {
+            if (!this.inBody && name.equals("frameset")) {
+                this.position = this.end; // a document with frames has no body
+                return;
+            }
+            if (!this.inBody && !HEAD_TAGS.contains(name))
+                this.inBody = true;
+            boolean block = BLOCK_TAGS.contains(name);
+            if (this.inBody && !name.equals("html") && !name.equals("head") && !name.equals("body")) {
+                if (this.body.length() > 0 && (block || name.equals("br")))
+                    this.space();
+                this.afterBlock = false;
+            }
+
+            switch (name) {
+            case "script":
+            case "style":
+                if (!selfClosing)
+                    this.skipRawText(name);
+                break;
+            case "title":
+                if (selfClosing)
+                    break;
+                String title = this.rawText(name, true);
+                if (this.inBody) {
+                    this.preformatted++;
+                    this.append(title);
+                    this.preformatted--;
+                } else if (this.title == null)
+                    this.title = normalizeWhitespace(title);
+                break;
+            case "textarea":
+                if (selfClosing)
+                    break;
+                this.skipNewline();
+                this.preformatted++;
+                this.append(this.rawText(name, true));
+                this.preformatted--;
+                return; // it is not a block
+            case "plaintext":
+                this.preformatted++;
+                this.append(this.html.substring(this.position));
+                this.position = this.end;
+                return;
+            case "pre":
+            case "listing":
+                if (selfClosing)
+                    return;
+                if (name.equals("pre"))
+                    this.preformatted++;
+                this.skipNewline();
+                return;
+            default:
+                if (!VOID_TAGS.contains(name) && !selfClosing)
+                    return;
+            }
+            // The element has ended already
+            if (this.inBody && block)
+                this.afterBlock = true;
+        }
+
+        /**
+         * Handles an end tag.
+         */
+        protected void endTag(String name)
+        {
+            if (name.equals("br")) {
+                this.startTag(name, false);
+                return;
+            }
+            if (name.equals("pre") && this.preformatted > 0)
+                this.preformatted--;
+            if (this.inBody && !name.equals("html") && !name.equals("body"))
+                this.afterBlock = BLOCK_TAGS.contains(name);
+        }
+
+        /**
+         * Handles the text between the given positions, which holds no markup.
+         */
+        protected void text(int from, int to)
+        {
+            if (from >= to)
+                return;
+            for (int i = from; i < to; i++)
+                if (this.html.charAt(i) == '&') { // only decode what needs decoding
+                    this.append(Parser.unescapeEntities(this.html.substring(from, to), false));
+                    return;
+                }
+            this.append(this.html, from, to);
+        }
+
+        protected void append(String text)
+        {
+            this.append(text, 0, text.length());
+        }
+
+        /**
+         * Appends text to the body, collapsing its whitespace like Jsoup does unless within a pre element, or starts
+         * the body if it is not only whitespace. Whitespace before the body is dropped.
+         */
+        protected void append(String text, int from, int to)
+        {
+            int i = from;
+            if (!this.inBody) {
+                while (i < to && isSpace(text.charAt(i)))
+                    i++;
+                if (i == to)
+                    return;
+                this.inBody = true;
+            }
+            if (this.afterBlock) {
+                this.space();
+                this.afterBlock = false;
+            }
+            StringBuilder body = this.body;
+            if (this.preformatted > 0) {
+                body.append(text, i, to);
+                return;
+            }
+            for (; i < to; i++) {
+                char c = text.charAt(i);
+                if (isWhitespace(c))
+                    this.space();
+                else if (c != '\u200B' && c != '\u00AD') // invisible characters
+                    body.append(c);
+            }
+        }
+
+        /**
+         * Appends a space to the body, unless it already ends with one.
+         */
+        protected void space()
+        {
+            int length = this.body.length();
+            if (length == 0 || this.body.charAt(length - 1) != ' ')
+                this.body.append(' ');
+        }
+
+        /**
+         * Reads a tag name, in lowercase, and moves past it.
+         */
+        protected String tagName()
+        {
+            int start = this.position;
+            boolean lower = true;
+            while (this.position < this.end) {
+                char c = this.html.charAt(this.position);
+                if (isSpace(c) || c == '/' || c == '>' || c == '<')
+                    break;
+                if (c >= 'A' && c <= 'Z')
+                    lower = false;
+                this.position++;
+            }
+            String name = this.html.substring(start, this.position);
+            return lower ? name : name.toLowerCase();
+        }
+
+        /**
+         * Skips the attributes of a tag, and moves past its end.
+         *
+         * @return {@code true} if the tag is self-closing.
+         */
+        protected boolean skipAttributes()
+        {
+            boolean selfClosing = false;
+            while (this.position < this.end) {
+                char c = this.html.charAt(this.position++);
+                if (c == '>')
+                    return selfClosing;
+                if (c == '<' && isSpace(this.html.charAt(this.position - 2))) {
+                    this.position--; // a new tag, as Jsoup does
+                    return false;
+                }
+                selfClosing = c == '/';
+                if (c == '=') {
+                    while (this.position < this.end && isSpace(this.html.charAt(this.position)))
+                        this.position++;
+                    if (this.position < this.end) {
+                        char quote = this.html.charAt(this.position);
+                        if (quote == '"' || quote == '\'') {
+                            int close = this.html.indexOf(quote, this.position + 1);
+                            this.position = close < 0 ? this.end : close + 1;
+                        }
+                    }
+                }
+            }
+            return selfClosing;
+        }
+
+        /**
+         * Reads the contents of a raw text element up to its end tag, and moves past it.
+         */
+        protected String rawText(String name, boolean decode)
+        {
+            int start = this.position;
+            int close = this.findEndTag(name);
+            String text = this.html.substring(start, close);
+            return decode && text.indexOf('&') >= 0 ? Parser.unescapeEntities(text, false) : text;
+        }
+
+        /**
+         * Skips the contents of a raw text element up to its end tag, and moves past it.
+         */
+        protected void skipRawText(String name)
+        {
+            this.findEndTag(name);
+        }
+
+        /**
+         * Finds the end tag of a raw text element, and moves past it.
+         *
+         * @return the position where the end tag starts.
+         */
+        protected int findEndTag(String name)
+        {
+            int from = this.position;
+            while (true) {
+                int close = this.html.indexOf("</", from);
+                if (close < 0) {
+                    this.position = this.end;
+                    return this.end;
+                }
+                int after = close + 2 + name.length();
+                if (this.html.regionMatches(true, close + 2, name, 0, name.length())
+                        && (after == this.end || isSpace(this.html.charAt(after))
+                                || this.html.charAt(after) == '/' || this.html.charAt(after) == '>')) {
+                    this.position = after;
+                    this.skipAttributes();
+                    return close;
+                }
+                from = close + 2;
+            }
+        }
+
+        /**
+         * Moves past a line feed at the current position, which is dropped at the start of some elements.
+         */
+        protected void skipNewline()
+        {
+            if (this.position < this.end && this.html.charAt(this.position) == '\n')
+                this.position++;
+        }
+
+        /**
+         * Moves past the next occurrence of a character, or to the end if there is none.
+         */
+        protected void skipPast(char c)
+        {
+            int i = this.html.indexOf(c, this.position);
+            this.position = i < 0 ? this.end : i + 1;
+        }
+
+        /**
+         * Collapses the whitespace of a text, like Jsoup does for titles.
+         */
+        protected static String normalizeWhitespace(String text)
+        {
+            StringBuilder normalized = new StringBuilder(text.length());
+            boolean space = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (isWhitespace(c)) {
+                    if (!space)
+                        normalized.append(' ');
+                    space = true;
+                } else if (c != '\u200B' && c != '\u00AD') {
+                    normalized.append(c);
+                    space = false;
+                }
+            }
+            return normalized.toString().trim();
+        }
+
+        protected static boolean isLetter(char c)
+        {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+
+        /**
+         * Checks whether a character is whitespace for HTML.
+         */
+        protected static boolean isSpace(char c)
+        {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+        }
+
+        /**
+         * Checks whether a character is whitespace that Jsoup collapses in text, including the non-breaking space.
+         */
+        protected static boolean isWhitespace(char c)
+        {
+            return isSpace(c) || c == '\u00A0';
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package ti;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class streams the {@code .html} entries of a tar archive as documents, without extracting it.
+ * <p>
+ * A tar archive is a sequence of entries, each made of a 512-byte header and its content padded to a multiple of 512
+ * bytes, and ends with an all-zero header. The header holds the name, the size in octal (or in base 256, for large
+ * entries) and the type of the entry; the ustar format adds a prefix to the name. Long names are supported both as
+ * GNU {@code L} entries and as {@code path} records of POSIX {@code x} headers. Entries other than regular files are
+ * skipped.
+ */
+public class TarSource implements DocumentSource
+{
+    protected static final int BLOCK = 512;
+
+    protected final String archive;
+    protected final DataInputStream in;
+    protected final byte[] header;
+    protected boolean ended;
+
+    /**
+     * Creates a new source over an uncompressed tar stream.
+     *
+     * @param archive the name of the archive, for messages.
+     * @param in      the tar stream, which is closed with the source.
+     */
+    public TarSource(String archive, InputStream in)
+    {
+        this.archive = archive;
+        this.in = new DataInputStream(in);
+        this.header = new byte[BLOCK];
+        this.ended = false;
+    }
+
+    @Override
+    public SourceDocument next() throws IOException
+    {
+        String longName = null;
+        while (!this.ended) {
+            if (!this.readHeader()) {
+                this.ended = true;
+                break;
+            }
+            long size = this.size();
+            byte type = this.header[156];
+            String name = longName != null ? longName : this.name();
+            longName = null;
+
+            if (type == 'L') {
+                longName = cString(this.readContent(size), 0, (int) size);
+            } else if (type == 'x') {
+                String path = paxPath(this.readContent(size));
+                if (path != null)
+                    longName = path;
+            } else if ((type == '0' || type == 0 || type == '7') && name.endsWith(".html")) {
+                byte[] content = this.readContent(size);
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+                return new SourceDocument(SourceDocument.nameOf(fileName), this.archive + ":" + name, content);
+            } else {
+                this.skipContent(size);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.in.close();
+    }
+
+    /**
+     * Reads the next header.
+     *
+     * @return {@code false} at the end of the archive.
+     */
+    protected boolean readHeader() throws IOException
+    {
+        int read = this.in.readNBytes(this.header, 0, BLOCK);
+        if (read == 0)
+            return false;
+        if (read < BLOCK)
+            throw new EOFException("Truncated tar header in " + this.archive + ".");
+        for (byte b : this.header) {
+            if (b != 0) {
+                this.checkChecksum();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected void checkChecksum() throws IOException
+    {
+        long expected = octal(this.header, 148, 8);
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++)
+            sum += i >= 148 && i < 156 ? ' ' : this.header[i] & 0xFF;
+        if (sum != expected)
+            throw new IOException("Corrupt tar header in " + this.archive + ".");
+    }
+
+    protected String name()
+    {
+        String name = cString(this.header, 0, 100);
+        boolean ustar = this.header[257] == 'u' && this.header[258] == 's' && this.header[259] == 't'
+                && this.header[260] == 'a' && this.header[261] == 'r';
+        if (ustar && this.header[345] != 0)
+            name = cString(this.header, 345, 155) + "/" + name;
+        return name;
+    }
+
+    protected long size() throws IOException
+    {
+        if ((this.header[124] & 0x80) != 0) {
+            // Base-256, for entries of 8 GB or more
+            long size = 0;
+            for (int i = 125; i < 136; i++)
+                size = size << 8 | (this.header[i] & 0xFF);
+            return size;
+        }
+        return octal(this.header, 124, 12);
+    }
+
+    protected byte[] readContent(long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IOException("Tar entry too large in " + this.archive + ".");
+        byte[] content = new byte[(int) size];
+        this.in.readFully(content);
+        this.skipFully(padding(size));
+        return content;
+    }
+
+    protected void skipContent(long size) throws IOException
+    {
+        this.skipFully(size + padding(size));
+    }
+
+    protected void skipFully(long bytes) throws IOException
+    {
+        while (bytes > 0) {
+            long skipped = this.in.skip(bytes);
+            if (skipped <= 0) {
+                if (this.in.read() < 0)
+                    throw new EOFException("Truncated tar entry in " + this.archive + ".");
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    protected static long padding(long size)
+    {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    protected static long octal(byte[] bytes, int offset, int length) throws IOException
+    {
+        long value = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end && (bytes[i] == ' ' || bytes[i] == 0))
+            i++;
+        for (; i < end && bytes[i] != ' ' && bytes[i] != 0; i++) {
+            if (bytes[i] < '0' || bytes[i] > '7')
+                throw new IOException("Invalid octal number in tar header.");
+            value = value << 3 | (bytes[i] - '0');
+        }
+        return value;
+    }
+
+    protected static String cString(byte[] bytes, int offset, int length)
+    {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0)
+            end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the {@code path} of a POSIX extended header, made of {@code "<length> <key>=<value>\n"} records.
+     */
+    protected static String paxPath(byte[] records)
+    {
+        int pos = 0;
+        while (pos < records.length) {
+            int space = pos;
+            while (space < records.length && records[space] != ' ')
+                space++;
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+            if (length <= 0 || pos + length > records.length)
+                return null;
+            String record = new String(records, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path="))
+                return record.substring(5);
+            pos += length;
+        }
+        return null;
+    }
+}
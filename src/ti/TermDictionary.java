@@ -0,0 +1,474 @@
+package ti;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only vocabulary that maps terms onto their {@code termID} and IDF, read in place from a sorted and
+ * front-coded term dictionary.
+ * <p>
+ * {@code [term] -> (termID, IDF)}
+ * <p>
+ * Terms are sorted by their UTF-8 bytes and grouped in blocks of {@link #BLOCK_SIZE} entries. Each entry is stored as
+ * the length of the prefix it shares with the previous term in the block, the length and bytes of the remaining
+ * suffix, the {@code termID} as a variable-byte integer and the IDF as a {@code double}; the first entry of a block
+ * always stores the full term. The blocks are followed by a table with the {@code int} offset of each block, the
+ * {@code int} number of blocks and the {@code int} number of terms.
+ * <p>
+ * A lookup binary-searches the first terms of the blocks and then scans a single block, so it takes
+ * {@code O(log n)} time and no heap besides the buffer, which is usually memory-mapped. The scan compares each entry
+ * with the key from the prefix the previous entry matched, so terms are never rebuilt from their front coding.
+ * {@link #termID(char[], int)} probes with a slice of a buffer, encoded into a buffer of the thread that is reused
+ * from one lookup to the next, so it does not allocate. Iterating the map returns the terms in sorted order.
+ */
+public class TermDictionary extends AbstractMap<String, Tuple<Integer, Double>>
+{
+    /**
+     * The number of terms in each block.
+     */
+    public static final int BLOCK_SIZE = 16;
+
+    protected final ByteBuffer buf;
+    protected final int termCount;
+    protected final int blockCount;
+    protected final int blockTable;
+    protected final ThreadLocal<Probe> probes = ThreadLocal.withInitial(Probe::new);
+
+    /**
+     * Creates a new term dictionary over the given buffer, which holds the whole on-disk layout between position
+     * {@code 0} and its limit.
+     *
+     * @param buf the buffer with the term dictionary.
+     */
+    public TermDictionary(ByteBuffer buf)
+    {
+        this.buf = buf;
+        this.termCount = buf.getInt(buf.limit() - 4);
+        this.blockCount = buf.getInt(buf.limit() - 8);
+        this.blockTable = buf.limit() - 8 - 4 * this.blockCount;
+    }
+
+    /**
+     * Writes the given vocabulary as a term dictionary.
+     *
+     * @param vocabulary the vocabulary to write.
+     * @param out        the output to write to.
+     * @throws IOException if an error occurs while writing.
+     */
+    public static void write(Map<String, Tuple<Integer, Double>> vocabulary, DataOutputStream out) throws IOException
+    {
+        ArrayList<Tuple<byte[], Tuple<Integer, Double>>> entries = new ArrayList<>(vocabulary.size());
+        for (Map.Entry<String, Tuple<Integer, Double>> entry : vocabulary.entrySet())
+            entries.add(new Tuple<>(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        entries.sort((e1, e2) -> Arrays.compareUnsigned(e1.item1, e2.item1));
+
+        Writer writer = new Writer(out);
+        byte[] previous = null;
+        for (Tuple<byte[], Tuple<Integer, Double>> entry : entries) {
+            // Malformed terms (e.g. with unpaired surrogates) may encode to the same bytes; keep the first one
+            if (previous == null || !Arrays.equals(previous, entry.item1))
+                writer.add(entry.item1, entry.item2.item1, entry.item2.item2);
+            previous = entry.item1;
+        }
+        writer.finish();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<Integer, Double> get(Object key)
+    {
+        if (!(key instanceof String))
+            return null;
+        byte[] term = ((String) key).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer in = this.buf.duplicate();
+        if (!this.find(in, term, term.length))
+            return null;
+        int termID = PostingsCodec.readVInt(in);
+        return new Tuple<>(termID, in.getDouble());
+    }
+
+    /**
+     * Looks up the {@code termID} of a term given as a slice of a buffer, such as the terms given to a
+     * {@link TermSink}, without allocating.
+     *
+     * @param chars  the buffer with the term at its start.
+     * @param length the length of the term.
+     * @return the {@code termID} of the term, or {@code -1} if it is not in the dictionary.
+     */
+    public int termID(char[] chars, int length)
+    {
+        Probe probe = this.probes.get();
+        if (3 * length > probe.key.length)
+            probe.key = new byte[3 * length];
+        int bytes = encode(chars, length, probe.key);
+        return this.find(probe.in, probe.key, bytes) ? PostingsCodec.readVInt(probe.in) : -1;
+    }
+
+    /**
+     * Encodes characters as UTF-8 like {@link String#getBytes} does, so unpaired surrogates become {@code '?'}.
+     *
+     * @param chars  the buffer with the characters at its start.
+     * @param length the number of characters to encode.
+     * @param out    the buffer for the bytes, with room for at least {@code 3 * length} of them.
+     * @return the number of bytes written.
+     */
+    protected static int encode(char[] chars, int length, byte[] out)
+    {
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            } else if (c < 0x800) {
+                out[n++] = (byte) (0xC0 | c >> 6);
+                out[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                out[n++] = (byte) (0xF0 | cp >> 18);
+                out[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                out[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                out[n++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                out[n++] = '?';
+            } else {
+                out[n++] = (byte) (0xE0 | c >> 12);
+                out[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[n++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return this.get(key) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return this.termCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The entries are returned in sorted order.
+     */
+    @Override
+    public Set<Entry<String, Tuple<Integer, Double>>> entrySet()
+    {
+        return new AbstractSet<Entry<String, Tuple<Integer, Double>>>()
+        {
+            @Override
+            public Iterator<Entry<String, Tuple<Integer, Double>>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return TermDictionary.this.termCount;
+            }
+        };
+    }
+
+    /**
+     * Looks up the term given by its UTF-8 bytes.
+     *
+     * @param in     a duplicate of the buffer of the dictionary, which is left at the {@code termID} of the term if
+     *               it is found.
+     * @param key    the buffer with the UTF-8 bytes of the term.
+     * @param length the number of bytes of the term in {@code key}.
+     * @return {@code true} if the term is in the dictionary.
+     */
+    protected boolean find(ByteBuffer in, byte[] key, int length)
+    {
+        if (this.termCount == 0)
+            return false;
+
+        // Last block whose first term is not greater than the key
+        int lo = 0, hi = this.blockCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            in.position(this.blockOffset(mid));
+            PostingsCodec.readVInt(in);
+            int len = PostingsCodec.readVInt(in);
+            int cmp = 0;
+            for (int i = 0; i < Math.min(len, length) && cmp == 0; i++)
+                cmp = Byte.toUnsignedInt(in.get()) - Byte.toUnsignedInt(key[i]);
+            if (cmp == 0)
+                cmp = len - length;
+            if (cmp <= 0)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+
+        // Scan the block. Terms are sorted, so an entry that shares less with the previous term than the previous
+        // term shares with the key is past the key, and one that shares more is still before it.
+        in.position(this.blockOffset(lo));
+        int entries = Math.min(BLOCK_SIZE, this.termCount - lo * BLOCK_SIZE);
+        int matched = 0; // bytes of the key matched by the previous term
+        for (int e = 0; e < entries; e++) {
+            int prefix = PostingsCodec.readVInt(in);
+            int suffix = PostingsCodec.readVInt(in);
+            if (prefix < matched)
+                return false;
+            int end = in.position() + suffix;
+            if (prefix == matched) {
+                int cmp = 0;
+                while (cmp == 0 && in.position() < end && matched < length) {
+                    cmp = Byte.toUnsignedInt(in.get()) - Byte.toUnsignedInt(key[matched]);
+                    if (cmp == 0)
+                        matched++;
+                }
+                if (cmp == 0)
+                    cmp = prefix + suffix - length;
+                if (cmp > 0)
+                    return false;
+                if (cmp == 0) {
+                    in.position(end);
+                    return true;
+                }
+            }
+            in.position(end);
+            PostingsCodec.readVInt(in);
+            in.getDouble();
+        }
+        return false;
+    }
+
+    protected int blockOffset(int block)
+    {
+        return this.buf.getInt(this.blockTable + 4 * block);
+    }
+
+    /**
+     * Returns a cursor over the terms of the dictionary in sorted order. Unlike {@link #entrySet}, it gives access to
+     * the UTF-8 bytes of each term without decoding them.
+     *
+     * @return a cursor positioned before the first term.
+     */
+    public TermCursor cursor()
+    {
+        return new TermCursor();
+    }
+
+    /**
+     * The buffers of a thread for {@link #termID(char[], int)}.
+     */
+    protected class Probe
+    {
+        protected final ByteBuffer in = TermDictionary.this.buf.duplicate();
+        protected byte[] key = new byte[64];
+    }
+
+    /**
+     * A cursor over the terms of the dictionary in sorted order.
+     */
+    public class TermCursor
+    {
+        protected final ByteBuffer in = TermDictionary.this.buf.duplicate();
+        protected byte[] term = new byte[32];
+        protected int length;
+        protected int termID;
+        protected double idf;
+        protected int next = 0;
+
+        /**
+         * Moves the cursor to the next term.
+         *
+         * @return {@code true} if there is a next term, or {@code false} if the cursor is past the last one.
+         */
+        public boolean next()
+        {
+            if (this.next >= TermDictionary.this.termCount)
+                return false;
+            if (this.next % BLOCK_SIZE == 0)
+                this.in.position(TermDictionary.this.blockOffset(this.next / BLOCK_SIZE));
+            this.next++;
+
+            int prefix = PostingsCodec.readVInt(this.in);
+            int suffix = PostingsCodec.readVInt(this.in);
+            if (prefix + suffix > this.term.length)
+                this.term = Arrays.copyOf(this.term, 2 * (prefix + suffix));
+            this.in.get(this.term, prefix, suffix);
+            this.length = prefix + suffix;
+            this.termID = PostingsCodec.readVInt(this.in);
+            this.idf = this.in.getDouble();
+            return true;
+        }
+
+        /**
+         * Returns the UTF-8 bytes of the current term.
+         *
+         * @return a new array with the bytes of the term.
+         */
+        public byte[] term()
+        {
+            return Arrays.copyOf(this.term, this.length);
+        }
+
+        /**
+         * Returns the current term.
+         *
+         * @return the term.
+         */
+        public String termString()
+        {
+            return new String(this.term, 0, this.length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns the {@code termID} of the current term.
+         *
+         * @return the {@code termID}.
+         */
+        public int termID()
+        {
+            return this.termID;
+        }
+
+        /**
+         * Returns the IDF of the current term.
+         *
+         * @return the IDF.
+         */
+        public double idf()
+        {
+            return this.idf;
+        }
+    }
+
+    /**
+     * Iterates the entries of the dictionary in sorted order.
+     */
+    protected class EntryIterator implements Iterator<Entry<String, Tuple<Integer, Double>>>
+    {
+        protected final TermCursor cursor = new TermCursor();
+        protected boolean advanced = false;
+        protected boolean hasNext;
+
+        @Override
+        public boolean hasNext()
+        {
+            if (!this.advanced) {
+                this.hasNext = this.cursor.next();
+                this.advanced = true;
+            }
+            return this.hasNext;
+        }
+
+        @Override
+        public Entry<String, Tuple<Integer, Double>> next()
+        {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            this.advanced = false;
+            return new SimpleImmutableEntry<>(this.cursor.termString(),
+                    new Tuple<>(this.cursor.termID(), this.cursor.idf()));
+        }
+    }
+
+    /**
+     * Writes a term dictionary from terms given in sorted order, in a single streaming pass.
+     */
+    public static class Writer
+    {
+        protected final DataOutputStream out;
+        protected final ArrayList<Integer> blockOffsets;
+        protected int position;
+        protected int count;
+        protected byte[] previous;
+
+        /**
+         * Creates a new writer.
+         *
+         * @param out the output to write to.
+         */
+        public Writer(DataOutputStream out)
+        {
+            this.out = out;
+            this.blockOffsets = new ArrayList<>();
+            this.position = 0;
+            this.count = 0;
+            this.previous = new byte[0];
+        }
+
+        /**
+         * Appends a term to the dictionary.
+         *
+         * @param term   the UTF-8 bytes of the term, which must sort after the previous one.
+         * @param termID the {@code termID} of the term.
+         * @param idf    the IDF of the term.
+         * @throws IOException if an error occurs while writing.
+         */
+        public void add(byte[] term, int termID, double idf) throws IOException
+        {
+            if (this.count > 0 && Arrays.compareUnsigned(this.previous, term) >= 0)
+                throw new IllegalArgumentException("Terms must be added in sorted order.");
+
+            int prefix = 0;
+            if (this.count % BLOCK_SIZE == 0) {
+                this.blockOffsets.add(this.position);
+            } else {
+                while (prefix < term.length && prefix < this.previous.length && term[prefix] == this.previous[prefix])
+                    prefix++;
+            }
+            this.position += PostingsCodec.writeVInt(this.out, prefix);
+            this.position += PostingsCodec.writeVInt(this.out, term.length - prefix);
+            this.out.write(term, prefix, term.length - prefix);
+            this.position += term.length - prefix;
+            this.position += PostingsCodec.writeVInt(this.out, termID);
+            this.out.writeDouble(idf);
+            this.position += 8;
+
+            this.previous = term;
+            this.count++;
+        }
+
+        /**
+         * Returns the number of terms added so far.
+         *
+         * @return the number of terms.
+         */
+        public int size()
+        {
+            return this.count;
+        }
+
+        /**
+         * Writes the block table and the counts that end the dictionary.
+         *
+         * @throws IOException if an error occurs while writing.
+         */
+        public void finish() throws IOException
+        {
+            for (int offset : this.blockOffsets)
+                this.out.writeInt(offset);
+            this.out.writeInt(this.blockOffsets.size());
+            this.out.writeInt(this.count);
+        }
+    }
+}
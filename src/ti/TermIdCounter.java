@@ -0,0 +1,148 @@
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class counts the occurrences of the terms of a document or query given by their {@code termID}.
+ * <p>
+ * The table only holds the position of each {@code termID} in two parallel arrays, which keep the {@code termID}s and
+ * their counts in order of first appearance. A counter can be {@link #clear cleared} and reused for the next document
+ * without reallocating its arrays.
+ */
+public class TermIdCounter
+{
+    protected static final int INITIAL_CAPACITY = 256;
+
+    protected int[] table;     // [slot] -> position + 1, or 0 if the slot is empty
+    protected int[] termIDs;   // [position] -> termID
+    protected double[] counts; // [position] -> count
+    protected int size;
+
+    /**
+     * Creates a new, empty counter.
+     */
+    public TermIdCounter()
+    {
+        this.table = new int[2 * INITIAL_CAPACITY];
+        this.termIDs = new int[INITIAL_CAPACITY];
+        this.counts = new double[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Adds to the count of a term.
+     *
+     * @param termID the {@code termID} of the term.
+     * @param count  the amount to add.
+     */
+    public void add(int termID, double count)
+    {
+        int mask = this.table.length - 1;
+        int slot = Hashing.mix(termID) & mask;
+        int position;
+        while ((position = this.table[slot]) != 0) {
+            if (this.termIDs[position - 1] == termID) {
+                this.counts[position - 1] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (this.size == this.termIDs.length) {
+            this.termIDs = Arrays.copyOf(this.termIDs, 2 * this.size);
+            this.counts = Arrays.copyOf(this.counts, 2 * this.size);
+        }
+        this.termIDs[this.size] = termID;
+        this.counts[this.size] = count;
+        this.size++;
+        this.table[slot] = this.size;
+        if (2 * this.size > this.table.length)
+            this.rehash();
+    }
+
+    /**
+     * Returns the number of distinct terms.
+     *
+     * @return the number of terms.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the {@code termID} of a term, in order of first appearance.
+     *
+     * @param i the position of the term.
+     * @return the {@code termID} of the term.
+     */
+    public int termID(int i)
+    {
+        return this.termIDs[i];
+    }
+
+    /**
+     * Returns the count of a term.
+     *
+     * @param i the position of the term.
+     * @return the count of the term.
+     */
+    public double count(int i)
+    {
+        return this.counts[i];
+    }
+
+    /**
+     * Returns the {@code termID}s of the terms, in order of first appearance.
+     *
+     * @return a new array with the {@code termID}s.
+     */
+    public int[] termIDs()
+    {
+        return Arrays.copyOf(this.termIDs, this.size);
+    }
+
+    /**
+     * Returns the counts of the terms transformed to {@code 1 + log(count)}, in order of first appearance.
+     *
+     * @return a new array with the weights.
+     */
+    public double[] logWeights()
+    {
+        double[] weights = new double[this.size];
+        for (int i = 0; i < this.size; i++)
+            weights[i] = 1 + Math.log(this.counts[i]);
+        return weights;
+    }
+
+    /**
+     * Removes all terms, keeping the allocated arrays.
+     */
+    public void clear()
+    {
+        // Empty only the slots in use, so clearing after a small document is cheap even if the table is large
+        int mask = this.table.length - 1;
+        for (int position = 0; position < this.size; position++) {
+            int slot = Hashing.mix(this.termIDs[position]) & mask;
+            while (this.table[slot] != position + 1)
+                slot = (slot + 1) & mask;
+            this.table[slot] = 0;
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Doubles the table and reinserts the positions of all terms.
+     */
+    protected void rehash()
+    {
+        this.table = new int[2 * this.table.length];
+        int mask = this.table.length - 1;
+        for (int position = 0; position < this.size; position++) {
+            int slot = Hashing.mix(this.termIDs[position]) & mask;
+            while (this.table[slot] != 0)
+                slot = (slot + 1) & mask;
+            this.table[slot] = position + 1;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ti;
+
+import java.util.Arrays;
+
+/**
+ * This class interns terms into dense {@code termID}s, given in order of first appearance, with an open-addressing
+ * hash table with linear probing.
+ * <p>
+ * Terms are looked up with a slice of a buffer, such as the tokens given to a {@link TermSink}, hashed like
+ * {@link String#hashCode}, so a {@link String} is only created the first time a term is seen. The table only holds
+ * the {@code termID} of each term, and the terms and their hashes are kept in arrays indexed by {@code termID}, so
+ * mismatches are mostly told apart by their hash without touching the term.
+ */
+public class TermIdTable
+{
+    protected static final int INITIAL_CAPACITY = 1024;
+
+    protected int[] table;    // [slot] -> termID + 1, or 0 if the slot is empty
+    protected int[] hashes;   // [termID] -> hash of the term
+    protected String[] terms; // [termID] -> term
+    protected int size;
+
+    /**
+     * Creates a new, empty table.
+     */
+    public TermIdTable()
+    {
+        this.table = new int[2 * INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.terms = new String[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the {@code termID} of a term given as a slice of a buffer, adding the term if it is not in the table.
+     *
+     * @param chars  the buffer with the term at its start.
+     * @param length the length of the term.
+     * @return the {@code termID} of the term.
+     */
+    public int intern(char[] chars, int length)
+    {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + chars[i];
+        int mask = this.table.length - 1;
+        int slot = Hashing.mix(hash) & mask;
+        int entry;
+        while ((entry = this.table[slot]) != 0) {
+            if (this.hashes[entry - 1] == hash && Hashing.equals(this.terms[entry - 1], chars, length))
+                return entry - 1;
+            slot = (slot + 1) & mask;
+        }
+
+        if (this.size == this.terms.length) {
+            this.hashes = Arrays.copyOf(this.hashes, 2 * this.size);
+            this.terms = Arrays.copyOf(this.terms, 2 * this.size);
+        }
+        int termID = this.size++;
+        this.hashes[termID] = hash;
+        this.terms[termID] = new String(chars, 0, length);
+        this.table[slot] = termID + 1;
+        if (2 * this.size > this.table.length)
+            this.rehash();
+        return termID;
+    }
+
+    /**
+     * Returns a term.
+     *
+     * @param termID the {@code termID} of the term.
+     * @return the term.
+     */
+    public String term(int termID)
+    {
+        return this.terms[termID];
+    }
+
+    /**
+     * Returns the number of terms in the table.
+     *
+     * @return the number of terms.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Doubles the table and reinserts all terms.
+     */
+    protected void rehash()
+    {
+        this.table = new int[2 * this.table.length];
+        int mask = this.table.length - 1;
+        for (int termID = 0; termID < this.size; termID++) {
+            int slot = Hashing.mix(this.hashes[termID]) & mask;
+            while (this.table[slot] != 0)
+                slot = (slot + 1) & mask;
+            this.table[slot] = termID + 1;
+        }
+    }
+}
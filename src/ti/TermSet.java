@@ -0,0 +1,71 @@
+package ti;
+
+import java.util.Collection;
+
+/**
+ * This class is an immutable set of terms that can be looked up with a slice of a buffer, such as the tokens given to
+ * a {@link TermSink}, without creating a {@link String} for them. It is an open-addressing hash table with linear
+ * probing, hashed like {@link String#hashCode}.
+ */
+public class TermSet
+{
+    protected final String[] table; // [slot] -> term, or null if the slot is empty
+    protected final int size;
+
+    /**
+     * Creates a new set with the specified terms.
+     *
+     * @param terms the terms.
+     */
+    public TermSet(Collection<String> terms)
+    {
+        int capacity = 16;
+        while (capacity < 2 * terms.size())
+            capacity *= 2;
+        this.table = new String[capacity];
+        int size = 0;
+        for (String term : terms) {
+            int slot = Hashing.mix(term.hashCode()) & (capacity - 1);
+            while (this.table[slot] != null && !this.table[slot].equals(term))
+                slot = (slot + 1) & (capacity - 1);
+            if (this.table[slot] == null) {
+                this.table[slot] = term;
+                size++;
+            }
+        }
+        this.size = size;
+    }
+
+    /**
+     * Checks whether the set has a term.
+     *
+     * @param chars  the buffer with the term at its start.
+     * @param length the length of the term.
+     * @return {@code true} if the term is in the set.
+     */
+    public boolean contains(char[] chars, int length)
+    {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = 31 * hash + chars[i];
+        int mask = this.table.length - 1;
+        int slot = Hashing.mix(hash) & mask;
+        String term;
+        while ((term = this.table[slot]) != null) {
+            if (Hashing.equals(term, chars, length))
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of terms in the set.
+     *
+     * @return the number of terms.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+}
@@ -0,0 +1,19 @@
+package ti;
+
+/**
+ * This interface receives the tokens or terms of a text one after the other, each as a slice of a buffer that is
+ * reused for the next one, so that no {@link String} needs to be created for them.
+ *
+ * @see Tokenizer
+ */
+@FunctionalInterface
+public interface TermSink
+{
+    /**
+     * Receives a term. The buffer is only valid until this method returns.
+     *
+     * @param chars  the buffer with the term at its start.
+     * @param length the length of the term.
+     */
+    void term(char[] chars, int length);
+}
@@ -0,0 +1,73 @@
+package ti;
+
+import java.util.List;
+
+/**
+ * This class chooses which segments of a {@link SegmentedIndex} to merge, following a size-tiered policy.
+ * <p>
+ * Each segment belongs to the tier given by the logarithm of its number of documents in base {@link #mergeFactor}.
+ * Whenever {@code mergeFactor} consecutive segments are in the same tier, they are merged into a single segment of the
+ * next tier. A document is thus rewritten once per tier, that is, a logarithmic number of times, and the number of
+ * segments stays below {@code mergeFactor} per tier.
+ */
+public class TieredMergePolicy
+{
+    /**
+     * The number of segments of the same tier that are merged together.
+     */
+    public final int mergeFactor;
+
+    /**
+     * Creates a new policy.
+     *
+     * @param mergeFactor the number of segments of the same tier that are merged together, at least 2.
+     */
+    public TieredMergePolicy(int mergeFactor)
+    {
+        if (mergeFactor < 2)
+            throw new IllegalArgumentException("The merge factor must be at least 2.");
+        this.mergeFactor = mergeFactor;
+    }
+
+    /**
+     * Returns the tier of a segment.
+     *
+     * @param documents the number of documents in the segment.
+     * @return the tier of the segment.
+     */
+    public int tier(int documents)
+    {
+        int tier = 0;
+        for (long size = this.mergeFactor; size <= documents; size *= this.mergeFactor)
+            tier++;
+        return tier;
+    }
+
+    /**
+     * Finds the next merge among the segments that are not being merged already. When several runs qualify, the one
+     * in the lowest tier is chosen, since it is the cheapest to merge.
+     *
+     * @param sizes   the number of documents of each segment, in order.
+     * @param merging whether each segment is being merged.
+     * @return the position of the first segment to merge and the position after the last one, or {@code null} if no
+     * merge is needed.
+     */
+    public int[] findMerge(List<Integer> sizes, boolean[] merging)
+    {
+        int[] best = null;
+        int bestTier = Integer.MAX_VALUE;
+        int start = 0;
+        while (start < sizes.size()) {
+            int tier = this.tier(sizes.get(start));
+            int end = start;
+            while (end < sizes.size() && !merging[end] && this.tier(sizes.get(end)) == tier)
+                end++;
+            if (end - start >= this.mergeFactor && tier < bestTier) {
+                best = new int[]{start, start + this.mergeFactor};
+                bestTier = tier;
+            }
+            start = Math.max(end, start + 1);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,164 @@
+package ti;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * This class splits text into tokens and normalizes them, with no regular expressions and no intermediate strings.
+ * <p>
+ * Tokens are split at whitespace, as for {@code \s} in a regular expression, and normalized as
+ * {@code token.toLowerCase().replaceAll(removed, "")}, where {@code removed} is a character class of the characters to
+ * strip. A lookup table, built once from the character class, maps each {@code char} onto its lowercase form, or marks
+ * it as removed. Tokens are written to a reusable buffer and handed to a {@link TermSink}. The few characters whose
+ * lowercase form is not a single {@code char}, or depends on the characters around them, such as the Greek capital
+ * sigma, are marked as complex: the tokens that hold them are normalized with the string methods instead, which keeps
+ * the result exact. Since whitespace is never removed, and the context of a character never spans whitespace,
+ * normalizing the tokens one by one gives the same terms as normalizing the whole text and splitting it.
+ * <p>
+ * Tokenizers are not thread-safe, because of their buffers, but they are cheap to create: tables are shared by all the
+ * tokenizers with the same character class.
+ */
+public class Tokenizer
+{
+    protected static final char REMOVED = '\uFFFF';
+    protected static final char COMPLEX = '\uFFFE';
+    protected static final ConcurrentHashMap<String, char[]> TABLES = new ConcurrentHashMap<>();
+
+    protected final Pattern removed;
+    protected final char[] table; // [char] -> lowercase char, REMOVED or COMPLEX
+    protected char[] buffer;  // of the current token
+    protected char[] scratch; // of the current normalized token
+
+    /**
+     * Creates a new tokenizer.
+     *
+     * @param removed a regular expression with the character class of the characters to strip, such as
+     *                {@code "[.,;]"}.
+     */
+    public Tokenizer(String removed)
+    {
+        this.removed = Pattern.compile(removed);
+        Locale locale = Locale.getDefault();
+        this.table = TABLES.computeIfAbsent(locale.toLanguageTag() + " " + removed,
+                key -> buildTable(this.removed, locale));
+        this.buffer = new char[64];
+        this.scratch = new char[64];
+    }
+
+    /**
+     * Splits a text into tokens at whitespace, as {@code split("\\s+")} would, but without empty tokens. The tokens are
+     * not normalized.
+     *
+     * @param text the text to split.
+     * @param sink the sink to give the tokens to.
+     */
+    public void split(String text, TermSink sink)
+    {
+        int n = text.length();
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (isSpace(c)) {
+                if (length > 0)
+                    sink.term(this.buffer, length);
+                length = 0;
+            } else {
+                if (length == this.buffer.length)
+                    this.buffer = Arrays.copyOf(this.buffer, 2 * length);
+                this.buffer[length++] = c;
+            }
+        }
+        if (length > 0)
+            sink.term(this.buffer, length);
+    }
+
+    /**
+     * Normalizes a token, as {@link #normalize(String)} would, and gives it to the sink unless nothing is left of it.
+     *
+     * @param chars  the buffer with the token at its start.
+     * @param length the length of the token.
+     * @param sink   the sink to give the normalized token to.
+     */
+    public void normalize(char[] chars, int length, TermSink sink)
+    {
+        char[] table = this.table;
+        if (length > this.scratch.length)
+            this.scratch = new char[Math.max(length, 2 * this.scratch.length)];
+        char[] normalized = this.scratch;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char lower = table[chars[i]];
+            if (lower == COMPLEX) {
+                String token = this.normalize(new String(chars, 0, length));
+                if (token.length() > normalized.length)
+                    this.scratch = normalized = new char[token.length()];
+                token.getChars(0, token.length(), normalized, 0);
+                n = token.length();
+                break;
+            }
+            if (lower != REMOVED)
+                normalized[n++] = lower;
+        }
+        if (n > 0)
+            sink.term(normalized, n);
+    }
+
+    /**
+     * Normalizes a text, as {@code text.toLowerCase().replaceAll(removed, "")} would. Unlike the other methods, this
+     * one does not use the buffers of the tokenizer, so it may be called from several threads.
+     *
+     * @param text the text to normalize.
+     * @return the normalized text.
+     */
+    public String normalize(String text)
+    {
+        char[] table = this.table;
+        int n = text.length();
+        char[] chars = new char[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            char lower = table[text.charAt(i)];
+            if (lower == COMPLEX)
+                return this.removed.matcher(text.toLowerCase()).replaceAll("");
+            if (lower != REMOVED)
+                chars[length++] = lower;
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Checks whether a character is whitespace for {@code \s} in a regular expression.
+     *
+     * @param c the character.
+     * @return {@code true} if the character is a space, tab, line feed, vertical tab, form feed or carriage return.
+     */
+    public static boolean isSpace(char c)
+    {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * Builds the lookup table of a character class for the given locale.
+     */
+    protected static char[] buildTable(Pattern removed, Locale locale)
+    {
+        // In these languages, the lowercase form of some letters depends on the combining marks after them
+        String language = locale.getLanguage();
+        boolean marks = language.equals("lt") || language.equals("tr") || language.equals("az");
+
+        char[] table = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            String lower = String.valueOf((char) c).toLowerCase(locale);
+            if (lower.length() != 1 || c == '\u03A3' || Character.isSurrogate((char) c) || c == REMOVED || c == COMPLEX
+                    || (marks && Character.getType(c) == Character.NON_SPACING_MARK))
+                table[c] = COMPLEX;
+            else if (removed.matcher(lower).matches())
+                table[c] = REMOVED;
+            else
+                table[c] = lower.charAt(0);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,156 @@
+package ti;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class streams the documents of a WARC file, that is, a sequence of records each made of a {@code WARC/}
+ * version line, header lines, an empty line and {@code Content-Length} bytes of content.
+ * <p>
+ * Only {@code response} and {@code resource} records are documents; the rest, such as {@code warcinfo} or
+ * {@code request} records, are skipped. The HTTP headers at the start of a response are dropped. A document is named
+ * after its {@code WARC-TREC-ID} header, as in TREC collections, or else after its {@code WARC-Record-ID}.
+ */
+public class WarcSource implements DocumentSource
+{
+    protected final String archive;
+    protected final InputStream in;
+    protected final ByteArrayOutputStream line;
+
+    /**
+     * Creates a new source over an uncompressed WARC stream.
+     *
+     * @param archive the name of the file, for messages.
+     * @param in      the WARC stream, which is closed with the source.
+     */
+    public WarcSource(String archive, InputStream in)
+    {
+        this.archive = archive;
+        this.in = new BufferedInputStream(in);
+        this.line = new ByteArrayOutputStream(256);
+    }
+
+    @Override
+    public SourceDocument next() throws IOException
+    {
+        String version;
+        while ((version = this.readLine()) != null) {
+            if (version.isEmpty())
+                continue; // between records
+            if (!version.startsWith("WARC/"))
+                throw new IOException("Invalid WARC record in " + this.archive + ": " + version);
+
+            String type = null;
+            String trecID = null;
+            String recordID = null;
+            String uri = null;
+            long length = -1;
+            String header;
+            while ((header = this.readLine()) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0)
+                    continue;
+                String key = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (key.equalsIgnoreCase("WARC-Type"))
+                    type = value;
+                else if (key.equalsIgnoreCase("WARC-TREC-ID"))
+                    trecID = value;
+                else if (key.equalsIgnoreCase("WARC-Record-ID"))
+                    recordID = value;
+                else if (key.equalsIgnoreCase("WARC-Target-URI"))
+                    uri = value;
+                else if (key.equalsIgnoreCase("Content-Length"))
+                    length = parseLength(value);
+            }
+            if (length < 0)
+                throw new IOException("WARC record without Content-Length in " + this.archive + ".");
+            if (length > Integer.MAX_VALUE - 8)
+                throw new IOException("WARC record too large in " + this.archive + ".");
+
+            boolean document = "response".equals(type) || "resource".equals(type);
+            if (!document || (trecID == null && recordID == null)) {
+                this.skipFully(length);
+                continue;
+            }
+            byte[] content = this.in.readNBytes((int) length);
+            if (content.length < length)
+                throw new EOFException("Truncated WARC record in " + this.archive + ".");
+            if ("response".equals(type))
+                content = stripHttpHeaders(content);
+
+            String name = trecID != null ? trecID : recordID.replaceAll("^<(urn:uuid:)?|>$", "");
+            return new SourceDocument(name, this.archive + ":" + (uri != null ? uri : name), content);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.in.close();
+    }
+
+    /**
+     * Reads a header line, without its terminator.
+     *
+     * @return the line, or {@code null} at the end of the stream.
+     */
+    protected String readLine() throws IOException
+    {
+        this.line.reset();
+        int b;
+        while ((b = this.in.read()) >= 0 && b != '\n')
+            this.line.write(b);
+        if (b < 0 && this.line.size() == 0)
+            return null;
+        String line = this.line.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    protected long parseLength(String value) throws IOException
+    {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid Content-Length in " + this.archive + ": " + value);
+        }
+    }
+
+    protected void skipFully(long bytes) throws IOException
+    {
+        while (bytes > 0) {
+            long skipped = this.in.skip(bytes);
+            if (skipped <= 0) {
+                if (this.in.read() < 0)
+                    throw new EOFException("Truncated WARC record in " + this.archive + ".");
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    /**
+     * Removes the status line and headers of an HTTP response, up to the first empty line.
+     */
+    protected static byte[] stripHttpHeaders(byte[] response)
+    {
+        if (response.length < 5 || response[0] != 'H' || response[1] != 'T' || response[2] != 'T' || response[3] != 'P')
+            return response;
+        for (int i = 0; i < response.length; i++) {
+            if (response[i] != '\n')
+                continue;
+            int next = i + 1;
+            if (next < response.length && response[next] == '\r')
+                next++;
+            if (next < response.length && response[next] == '\n')
+                return Arrays.copyOfRange(response, next + 1, response.length);
+        }
+        return new byte[0];
+    }
+}